@@ -1,40 +1,212 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
-// used in Commit.java
+/** The content of a file, stored in .gitlet/blobs under its id.
+ *
+ *  A blob file is the deflated bytes of the header "blob LENGTH\0"
+ *  followed by the file content, and its id is the hash of those
+ *  uncompressed bytes in the object format of the repository, as in
+ *  git. Blobs are written straight from the working file, a buffer at a
+ *  time. A file that is only hashed is read through
+ *  Utils.hash(byte[], FileChannel, long), off the Java heap.
+ *
+ *  Repositories made before this format stored each blob as a serialized
+ *  Blob object whose id covered the serialization header as well. Those
+ *  are still readable (see Repository.migrate).
+ */
 public class Blob implements Serializable {
+    /** Keeps legacy blob files readable, see Commit. */
+    private static final long serialVersionUID = -5028671482732621799L;
     public static final File BLOB_DIR = Utils.join(Repository.GITLET_DIR, "blobs");
 
+    /** Size of the buffer used to stream file contents. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Content of a legacy blob. */
     byte[] blobByte;
 
-    public Blob(File file) {
-        BLOB_DIR.mkdir();
-        blobByte = Utils.readContents(file);
+    /** Returns the id FILE would have as a blob, without storing it. */
+    public static String hash(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            return Utils.hash(header("blob", size), ch, size);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the header of an object of TYPE ("blob" or "tree") of
+     *  SIZE bytes. */
+    private static byte[] header(String type, long size) {
+        return (type + " " + size + "\0").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Stores the content of FILE as a blob, if it is not stored yet, and
+     *  returns its id. */
+    public static String write(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            return write(in, file.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores CONTENT as a blob, if it is not stored yet, and returns its id. */
+    public static String write(byte[] content) {
+        return write(new ByteArrayInputStream(content), content.length);
     }
 
+    /** Returns the content of blob BLOBID, whether it is loose or packed.
+     *  In a clone made without blobs, a blob not stored yet is fetched
+     *  from the remote and stored. */
     public static byte[] getBlobByte(String blobId) {
+        byte[] content = ObjectCache.content(blobId);
+        if (content != null) {
+            return content;
+        }
+        // only a miss opens the file to tell the older format apart
         File file = Utils.join(BLOB_DIR, blobId);
-        Blob b = Utils.readObject(file, Blob.class);
-        return b.blobByte;
+        if (file.exists() && isLegacy(file)) {
+            content = Utils.readObject(file, Blob.class).blobByte;
+            ObjectCache.putContent(blobId, content);
+            return content;
+        }
+        return load(BLOB_DIR, blobId);
     }
 
+    /** Returns true iff blob BLOBID is stored, loose or packed. */
+    public static boolean exists(String blobId) {
+        return Utils.join(BLOB_DIR, blobId).exists() || Pack.has(blobId);
+    }
 
-    public String write() {
-        //  wrong: String hs = getHash(); bug bug bug
-        String hs = Utils.sha1(Utils.serialize(this));
-        File newPath = Utils.join(BLOB_DIR, hs);
-        if (!newPath.exists()) {
-            try {
-                newPath.createNewFile();
-            } catch (IOException e) {
-                e.printStackTrace();
+    /** Returns true iff the loose blob FILE uses the serialized format of
+     *  older repositories. */
+    static boolean isLegacy(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read() == 0xac && in.read() == 0xed;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the SIZE bytes of IN as a blob through a temporary file. */
+    private static String write(InputStream in, long size) {
+        return store(BLOB_DIR, "blob", in, size);
+    }
+
+    /** Stores the SIZE bytes of IN as an object of TYPE ("blob" or
+     *  "tree") in DIR, if it is not stored yet, and returns its id. */
+    static String store(File dir, String type, InputStream in, long size) {
+        dir.mkdir();
+        File tmp;
+        String id;
+        try {
+            tmp = File.createTempFile(type, ".tmp", Repository.GITLET_DIR);
+            try (OutputStream out = new DeflaterOutputStream(new FileOutputStream(tmp))) {
+                id = copy(type, in, size, out);
             }
-            Utils.writeObject(newPath, this);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        return hs;
+        File target = Utils.join(dir, id);
+        try {
+            if (target.exists() || Pack.has(id)) {
+                tmp.delete();
+            } else {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                Transaction.wrote(target);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return id;
     }
 
+    /** Returns the content of object ID stored in DIR, loose or packed,
+     *  going through the ObjectCache. */
+    static byte[] load(File dir, String id) {
+        byte[] content = ObjectCache.content(id);
+        if (content != null) {
+            return content;
+        }
+        File file = Utils.join(dir, id);
+        content = file.exists() ? readLoose(file) : Pack.find(id);
+        if (content == null && dir.equals(BLOB_DIR)) {
+            // a clone made without blobs fetches each one on first use
+            content = Remote.fetchBlob(id);
+        }
+        if (content == null) {
+            throw Utils.error("Missing object %s.", id);
+        }
+        if (Config.verifyObjects()) {
+            String type = dir.equals(BLOB_DIR) ? "blob" : "tree";
+            if (!Utils.hash(type + " " + content.length + "\0", content).equals(id)) {
+                throw Utils.error("Corrupt object %s.", id);
+            }
+        }
+        ObjectCache.putContent(id, content);
+        return content;
+    }
+
+    /** Hashes the TYPE header for SIZE bytes followed by the SIZE bytes
+     *  of IN, copying header and content to OUT if it is not null.
+     *  Returns the object id. */
+    private static String copy(String type, InputStream in, long size, OutputStream out)
+        throws IOException {
+        MessageDigest md = Utils.hashDigest();
+        byte[] header = header(type, size);
+        md.update(header);
+        if (out != null) {
+            out.write(header);
+        }
+        byte[] buf = new byte[BUFFER_SIZE];
+        long left = size;
+        while (left > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, left));
+            if (n < 0) {
+                throw new IOException("file changed while being read");
+            }
+            md.update(buf, 0, n);
+            if (out != null) {
+                out.write(buf, 0, n);
+            }
+            left -= n;
+        }
+        return Utils.hashHex();
+    }
+
+    /** Reads a loose object, skipping its header. */
+    static byte[] readLoose(File file) {
+        try (InputStream in = new InflaterInputStream(new FileInputStream(file))) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            for (int c = in.read(); c != 0; c = in.read()) {
+                if (c < 0) {
+                    throw new IOException("corrupt blob " + file.getName());
+                }
+                header.write(c);
+            }
+            String head = header.toString(StandardCharsets.UTF_8);
+            int size = Integer.parseInt(head.substring(head.indexOf(' ') + 1));
+            return in.readNBytes(size);
+        } catch (IOException | NumberFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
 }
@@ -1,14 +1,23 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.Serializable;
 import java.util.List;
 
+/** A branch: a name and the commit it points at, kept in the RefStore of
+ *  the repository. A Branch read from the store remembers the commit it
+ *  pointed at then, and write() only moves the branch if it still does.
+ *  Serializable because older repositories stored branches that way. */
 public class Branch implements Serializable {
+    private static final long serialVersionUID = 2238821469061894464L;
+
+    /** Directory of the loose refs. */
     public static final File BRANCH_FILE = Utils.join(Repository.GITLET_DIR, "branches");
     private String branchName;
     private String lastCommit;
+    /** The commit the branch pointed at when read, or null for a new
+     *  branch. */
+    private transient String expected;
 
     public Branch(String brName, String lastCmt) {
         this.branchName = brName;
@@ -23,52 +32,38 @@ public class Branch implements Serializable {
         return lastCommit;
     }
 
-    public static void setCommitId(String filename, String commitId) {
-        File file = Utils.join(BRANCH_FILE, filename);
-        Utils.writeContents(file, commitId);
-    }
-
-    public static String getCommitId(String filename) {
-        // 用fileName来得到提交Id
-        File file = Utils.join(BRANCH_FILE, filename);
-        if (file.exists()) {
-            return Utils.readContentsAsString(file);
-        } else {
-            return null;
-        }
-    }
-
+    /** Stores this branch, which must not have moved since it was read,
+     *  or must not exist yet if it was made with new. */
     public void write() {
-        if (!BRANCH_FILE.exists()) {
-            BRANCH_FILE.mkdir();
-        }
-        File branchFile = Utils.join(BRANCH_FILE, branchName);
-        if (!branchFile.exists()) {
-            try {
-                branchFile.createNewFile();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        Utils.writeObject(branchFile, this);
+        RefStore.local().update(branchName, expected, lastCommit);
+        expected = lastCommit;
     }
 
     public static Branch read(String filename) {
-        File branchFile = Utils.join(BRANCH_FILE, filename);
-        if (!branchFile.exists()) {
+        return read(RefStore.local(), filename);
+    }
+
+    /** Returns branch NAME of REFS, or null if there is no such branch. */
+    static Branch read(RefStore refs, String name) {
+        String id = refs.get(name);
+        if (id == null) {
             return null;
         }
-        return Utils.readObject(branchFile, Branch.class);
+        Branch br = new Branch(name, id);
+        br.expected = id;
+        return br;
     }
 
     public static void remove(String branchName) {
-        File file = Utils.join(BRANCH_FILE, branchName);
-        if (!file.isDirectory() && file.exists()) {
-            file.delete();
+        Branch br = read(branchName);
+        if (br != null) {
+            RefStore.local().delete(branchName, br.lastCommit);
         }
     }
 
+    /** Returns the names of all branches, sorted. The branches fetched
+     *  from a remote are named REMOTE/BRANCH. */
     public static List<String> allBranches() {
-        return Utils.plainFilenamesIn(BRANCH_FILE);
+        return RefStore.local().names();
     }
 }
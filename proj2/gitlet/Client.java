@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/** The thin client of a Server: forwards a command to the server of the
+ *  repository in the current directory and copies back its output. It
+ *  only loads the classes it needs for that, so it starts faster than
+ *  Main. Without a server, it runs the command itself.
+ *
+ *  Usage: java gitlet.Client ARGS, with ARGS as for gitlet.Main.
+ */
+public class Client {
+
+    public static void main(String[] args) {
+        int status = forward(args);
+        if (status < 0) {
+            Main.run(args);
+            status = 0;
+        }
+        System.out.flush();
+        System.exit(status);
+    }
+
+    /** Returns true iff a server is listening for this repository. */
+    static boolean isRunning() {
+        try (SocketChannel ch = connect()) {
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Runs ARGS on the server, copying its output to System.out and
+     *  System.err. Returns the exit status of the command, or -1 if no
+     *  server is listening. */
+    static int forward(String[] args) {
+        SocketChannel ch;
+        try {
+            ch = connect();
+        } catch (IOException excp) {
+            return -1;
+        }
+        try (ch) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(ch)));
+            out.writeInt(args.length);
+            out.writeUTF(Repository.CWD.getPath());
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(ch));
+            byte[] buf = new byte[8192];
+            while (true) {
+                byte type = in.readByte();
+                if (type == Server.EXIT) {
+                    System.out.flush();
+                    return in.readInt();
+                }
+                PrintStream dest = type == Server.ERR ? System.err : System.out;
+                int len = in.readInt();
+                while (len > 0) {
+                    int n = in.read(buf, 0, Math.min(len, buf.length));
+                    if (n < 0) {
+                        throw new IOException("server closed the connection");
+                    }
+                    dest.write(buf, 0, n);
+                    len -= n;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static SocketChannel connect() throws IOException {
+        SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            ch.connect(UnixDomainSocketAddress.of(Server.SOCKET_FILE.toPath()));
+        } catch (IOException excp) {
+            ch.close();
+            throw excp;
+        }
+        return ch;
+    }
+}
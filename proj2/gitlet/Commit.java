@@ -3,6 +3,8 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -14,6 +16,10 @@ import static gitlet.Utils.join;
  *  @author luohuang
  */
 public class Commit implements Serializable {
+    /** Pinned to the value Java derived for the original class, so
+     *  existing commit files stay readable and keep their ids. */
+    private static final long serialVersionUID = -3362869989258369389L;
+
     /*
      * List all instance variables of the Commit class here with a useful
      * comment above them describing what that variable represents and how that
@@ -22,12 +28,21 @@ public class Commit implements Serializable {
 
     /** The message of this Commit. */
     public static final File COMMITS_DIR = join(Repository.GITLET_DIR, "commits");
+    /** Shortest abbreviated commit id accepted by read. */
+    public static final int MIN_PREFIX = 4;
     private String message = "initial commit";
     private Date timestamp = new Date();
     private String firFarther = ""; // this need to be initial
     private String secFarther = "";
-    // fileName -> blobId
+    // fileName -> blobId, for commits made before trees; null otherwise
     Map<String, String> blobs = new HashMap<>();
+    /** Id of the root Tree of this commit, or null for a commit that
+     *  lists its files in blobs. */
+    private String tree;
+    /** The files of tree, read when first needed. */
+    private transient Map<String, String> files;
+    /** The id of this commit, once it was read or written. */
+    private transient String id;
 
     public Commit() {
         message = "initial commit";
@@ -44,125 +59,251 @@ public class Commit implements Serializable {
     }
 
     public Commit(String msg, String fa1, String fa2, Map<String, String> cmtMap) {
+        this(msg, fa1, fa2, Tree.update(null, cmtMap));
+    }
+
+    /** A commit whose files are those of tree TREEID. */
+    public Commit(String msg, String fa1, String fa2, String treeId) {
         this.message = msg;
         this.firFarther = fa1;
         this.secFarther = fa2;
-        this.blobs = cmtMap;
+        this.blobs = null;
+        this.tree = treeId;
         this.timestamp.getTime();
     }
 
+    /** A commit with an explicit TIME in milliseconds, for rewriting
+     *  existing history. */
+    Commit(String msg, String fa1, String fa2, Map<String, String> cmtMap, long time) {
+        this(msg, fa1, fa2, cmtMap);
+        this.timestamp.setTime(time);
+    }
+
     public String write() {
         if (!COMMITS_DIR.exists()) {
             COMMITS_DIR.mkdir();
         }
 //        String hash = getHash();
-        String hash = Utils.sha1(Utils.serialize(this));
+        byte[] bytes = Utils.serialize(this);
+        String hash = Utils.hash((Object) bytes);
         String sp = File.separator;
 //        File commitFile = join(Repository.GITLET_DIR, "commits" + sp + hash);
         File commitFile = Utils.join(COMMITS_DIR, hash);
         if (!commitFile.exists()) {
             try {
-                commitFile.createNewFile();
+                File tmp = File.createTempFile("commit", ".tmp", Repository.GITLET_DIR);
+                Utils.writeContents(tmp, (Object) bytes);
+                Files.move(tmp.toPath(), commitFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            Transaction.wrote(commitFile);
+        }
+        // open the log first: building it for an older repository reads
+        // the graph, which must not have this commit appended twice
+        CommitLog log = CommitLog.open();
+        CommitGraph graph = CommitGraph.open();
+        try (Transaction.Lock lock = Transaction.lock(Repository.GITLET_DIR)) {
+            // other processes may have appended commits since
+            log.refresh();
+            graph.refresh();
+            if (!graph.contains(hash)) {
+                graph.add(hash, firFarther, secFarther, timestamp.getTime());
+                log.add(hash, firFarther, secFarther, timestamp.getTime(), message);
             }
         }
-        Utils.writeObject(commitFile, this);
+        id = hash;
+        ObjectCache.putCommit(hash, this);
         return hash;
     }
 
+    /** Returns the id of this commit. It is known once the commit was
+     *  read or written, and only computed for a commit not stored yet. */
     public String getHash() {
-        return Utils.sha1((Object) Utils.serialize(this));
+        if (id != null) {
+            return id;
+        }
+        return Utils.hash((Object) Utils.serialize(this));
         //
     }
 
+    public String getMessage() {
+        return message;
+    }
+
     public String getParent() {
         return firFarther;
     }
 
+    public String getSecondParent() {
+        return secFarther;
+    }
+
+    /** Returns the commit time in milliseconds. */
+    public long getTimestamp() {
+        return timestamp.getTime();
+    }
+
+    /** Returns the files of this commit, as file name -> blob id. */
     public Map<String, String> getBlobs() {
-        return blobs;
+        if (tree == null) {
+            return blobs;
+        }
+        if (files == null) {
+            files = Tree.files(tree);
+        }
+        return files;
+    }
+
+    /** Returns the blob id of FILENAME in this commit, or null if it has
+     *  no such file. Only the trees on the way to FILENAME are read. */
+    public String getBlob(String fileName) {
+        if (tree == null || files != null) {
+            return getBlobs().get(fileName);
+        }
+        return Tree.lookup(tree, fileName);
+    }
+
+    /** Returns true iff this commit refers to a Tree rather than listing
+     *  its files itself. */
+    boolean hasTree() {
+        return tree != null;
+    }
+
+    /** Returns the id of the root tree of this commit. For a commit made
+     *  before trees, the tree is built from its files and stored. */
+    public String getTree() {
+        if (tree == null) {
+            return Tree.update(null, blobs);
+        }
+        return tree;
+    }
+
+    /** Returns the paths whose blob differs between commits A and B, see
+     *  Tree.diff. */
+    public static SortedMap<String, String[]> diff(Commit a, Commit b) {
+        return Tree.diff(a.getTree(), b.getTree());
     }
 
     public static Commit read(String hash) {
-        if (hash.length() == 8) {
-            List<String> list = Utils.plainFilenamesIn(COMMITS_DIR);
-            for (String fileName : list) {
-                // wrong: if (fileName.StartWith(hash))
-//                if (fileName.substring(0, 8).equals(sha1)) {
-                if (fileName.startsWith(hash)) {
-                    hash = fileName;
-                    break;
-                }
+        if (hash.length() < Utils.uidLength()) {
+            hash = resolve(hash);
+            if (hash == null) {
+                return null;
             }
         }
+        Commit cached = ObjectCache.commit(hash);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] bytes = readBytes(hash);
+        if (bytes == null) {
+            return null;
+        }
+        if (Config.verifyObjects() && !Utils.hash((Object) bytes).equals(hash)) {
+            throw Utils.error("Corrupt object %s.", hash);
+        }
+        Commit cmt = Utils.deserialize(bytes, Commit.class);
+        cmt.id = hash;
+        ObjectCache.putCommit(hash, cmt);
+        return cmt;
+    }
+
+    /** Returns the stored form of commit HASH, loose or packed, or null
+     *  if there is no such commit. */
+    static byte[] readBytes(String hash) {
         File cmtFile = join(COMMITS_DIR, hash);
-        if (!cmtFile.exists()) {
+        if (cmtFile.exists()) {
+            return Utils.readContents(cmtFile);
+        }
+        return Pack.find(hash);
+    }
+
+    /** Returns the ids of all commits in the repository, loose or packed. */
+    static List<String> allIds() {
+        Set<String> ids = new TreeSet<>();
+        List<String> loose = Utils.plainFilenamesIn(COMMITS_DIR);
+        if (loose != null) {
+            ids.addAll(loose);
+        }
+        for (Pack p : Pack.all()) {
+            ids.addAll(p.ids(Pack.COMMIT));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Returns the full id of the commit whose id starts with PREFIX, or
+     *  null if there is none. PREFIX must have at least MIN_PREFIX digits;
+     *  an ambiguous prefix is reported as an error. */
+    public static String resolve(String prefix) {
+        if (prefix.length() < MIN_PREFIX || !prefix.matches("[0-9a-f]+")) {
             return null;
         }
-        return Utils.readObject(cmtFile, Commit.class);
+        List<String> ids = CommitGraph.open().resolve(prefix, 2);
+        if (ids.size() > 1) {
+            Utils.errorPrint("Ambiguous commit id prefix.");
+        }
+        return ids.isEmpty() ? null : ids.get(0);
     }
 
     @Override
     public String toString() {
+        return format(getHash(), firFarther, secFarther, timestamp.getTime(), message);
+    }
+
+    /** Returns the log entry of commit ID with parents PARENT1 and PARENT2
+     *  ("" if none), made at TIME milliseconds with MESSAGE. */
+    static String format(String id, String parent1, String parent2, long time, String message) {
         StringBuilder sb = new StringBuilder();
         sb.append("===\n");
         // SHA1
-        sb.append("commit ").append(Utils.sha1(Utils.serialize(this))).append("\n");
+        sb.append("commit ").append(id).append("\n");
         // Merge
-        if (!secFarther.equals("")) {
-            sb.append("Merge: ").append(firFarther.substring(0, 7)).append(" ");
-            sb.append(secFarther.substring(0, 7)).append("\n");
+        if (!parent2.equals("")) {
+            sb.append("Merge: ").append(parent1.substring(0, 7)).append(" ");
+            sb.append(parent2.substring(0, 7)).append("\n");
         }
         // TimeStamp
         sb.append("Date: ");
         SimpleDateFormat format = new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z");
-        sb.append(format.format(timestamp)).append("\n");
+        sb.append(format.format(new Date(time))).append("\n");
         // Message
         sb.append(message).append("\n");
         return sb.toString();
     }
 
-    /** Merge blobs
+    /** Returns the root tree of CURCOMMIT with the files of CURSTAGE
+     *  added and removed. Only the trees above staged files are rewritten.
      * @author luohuang
      */
-    public static Map<String, String> mergeBlobs(Commit curCommit, StagingArea curStage) {
-        Map<String, String> cmtBlobs = curCommit.getBlobs();
+    public static String mergeBlobs(Commit curCommit, StagingArea curStage) {
+        Map<String, String> changes = new HashMap<>();
         // delete existed file in RemoveFile(Staging area)
         for (String fileName : curStage.getRemoveFile()) {
-            cmtBlobs.remove(fileName);
-        }
-        for (Map.Entry<String, String> entry : curStage.getBlobMap().entrySet()) {
-            cmtBlobs.put(entry.getKey(), entry.getValue());
+            changes.put(fileName, null);
         }
-        return cmtBlobs;
+        changes.putAll(curStage.getBlobMap());
+        return Tree.update(curCommit.getTree(), changes);
     }
 
-    /** Return all commit log
+    /** Return all commit log, read from the commit log rather than the
+     *  commit objects.
      * @author luo_huang
      */
     public static List<String> getAllCommitLog() {
         List<String> res = new ArrayList<>();
-        List<String> arr = Utils.plainFilenamesIn(COMMITS_DIR);
-        for (String fileName : arr) {
-            Commit cmt = Commit.read(fileName);
-            res.add(cmt.toString());
-        }
+        CommitLog.open().forEach(e -> res.add(
+            format(e.id, e.parent1, e.parent2, e.timestamp, e.message)));
         return res;
     }
 
+    /** Returns the ids of the commits whose message is MSG. */
     public static List<String> find(String msg) {
-        List<String> res = new ArrayList<>();
-        List<String> arr = Utils.plainFilenamesIn(COMMITS_DIR);
-        for (String fileName : arr) {
-            Commit cmt = read(fileName);
-            if (cmt.message.equals(msg)) {
-//                res.add(cmt.toString());   bugggggg
-                res.add(Utils.sha1(Utils.serialize(cmt)));
-            }
-        }
-        return res;
+        return CommitLog.open().find(msg);
+    }
 
+    /** Returns the ids of the commits whose message contains TEXT. */
+    public static List<String> findContaining(String text) {
+        return CommitLog.open().findContaining(text);
     }
 }
-
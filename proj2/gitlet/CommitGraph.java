@@ -0,0 +1,348 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A persistent, append-only index of the commit graph.
+ *
+ *  The file .gitlet/commit-graph starts with an 8 byte header (the magic
+ *  "CGPH" and a format version) followed by one fixed-width record per
+ *  commit:
+ *
+ *      id          ID bytes   raw id of the commit
+ *      parent1      4 bytes   position of the first parent, -1 for
+ *                             none, or -2 if it was left out of a
+ *                             shallow clone
+ *      parent2      4 bytes   likewise for the second parent
+ *      generation   4 bytes   1 + max(generation of the parents)
+ *      timestamp    8 bytes   commit time in milliseconds
+ *
+ *  ID is the id width of the object format, 20 bytes for SHA-1 and 32
+ *  for SHA-256. A commit is always appended after its parents, so
+ *  parents are stored as record positions instead of repeating their
+ *  ids. Walking history through this file never touches .gitlet/commits.
+ *
+ *  Records are never rewritten, so a commit whose parent is left out of
+ *  a shallow clone keeps the generation it got without it. Should that
+ *  parent arrive later, the graph is rebuilt (see ObjectStore.receive).
+ */
+class CommitGraph {
+
+    /** The default location of the commit graph. */
+    static final File GRAPH_FILE = Utils.join(Repository.GITLET_DIR, "commit-graph");
+
+    /** File magic, "CGPH". */
+    private static final int MAGIC = 0x43475048;
+    /** Layout version of the records. */
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+
+    /** Marks a missing parent. */
+    static final int NONE = -1;
+    /** Marks, in a record, a parent left out of a shallow clone. */
+    private static final int SHALLOW = -2;
+
+    /** Graph of the current repository, opened lazily. */
+    private static CommitGraph current;
+
+    /** The file backing this graph. */
+    private final File file;
+    /** Width of an id and of a record in bytes. */
+    private final int idSize;
+    private final int recordSize;
+    /** Number of complete records in the file. */
+    private int size;
+    /** Read-only view of the records, remapped when the file grows. */
+    private MappedByteBuffer records;
+    /** Number of records covered by RECORDS. */
+    private int mapped;
+    /** Sorted id -> position index covering the first records. */
+    private final CommitIndex index;
+    /** id -> position for the records the index does not cover yet,
+     *  built on first lookup. */
+    private Map<String, Integer> tail;
+
+    CommitGraph(File file) {
+        this.file = file;
+        this.idSize = Utils.rawUidLength();
+        this.recordSize = idSize + 4 + 4 + 4 + 8;
+        this.index = new CommitIndex(new File(file.getPath() + ".idx"));
+        if (file.exists()) {
+            long len = file.length();
+            size = len < HEADER_SIZE ? 0 : (int) ((len - HEADER_SIZE) / recordSize);
+        }
+    }
+
+    /** Returns the commit graph of the current repository, building it
+     *  from the commit objects if the repository predates the graph. */
+    static CommitGraph open() {
+        if (current == null) {
+            current = new CommitGraph(GRAPH_FILE);
+            if (!current.hasValidHeader()) {
+                current.rebuild();
+            }
+        }
+        return current;
+    }
+
+    /** Returns true iff the backing file exists and has the expected
+     *  magic and version. */
+    boolean hasValidHeader() {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.readInt() == MAGIC && raf.readInt() == VERSION;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the file backing this graph. */
+    File file() {
+        return file;
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the position of commit ID, or NONE if it is not indexed. */
+    int position(String id) {
+        Integer pos = tail().get(id);
+        if (pos != null) {
+            return pos;
+        }
+        if (id.length() != Utils.uidLength()) {
+            return NONE;
+        }
+        return index.lookup(Utils.fromHex(id));
+    }
+
+    /** Returns the ids of up to LIMIT commits whose ids start with the
+     *  hexadecimal numeral PREFIX. */
+    List<String> resolve(String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        for (int pos : index.match(prefix, limit)) {
+            result.add(id(pos));
+        }
+        for (String id : tail().keySet()) {
+            if (result.size() < limit && id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff commit ID is indexed. */
+    boolean contains(String id) {
+        return position(id) != NONE;
+    }
+
+    /** Returns the id of the commit at POS. */
+    String id(int pos) {
+        return Utils.toHex(rawId(pos));
+    }
+
+    /** Returns the id of the commit at POS as raw bytes. */
+    byte[] rawId(int pos) {
+        byte[] raw = new byte[idSize];
+        record(pos).get(raw);
+        return raw;
+    }
+
+    /** Returns the position of the first parent of POS, or NONE if it
+     *  has none in the graph. */
+    int parent1(int pos) {
+        return Math.max(record(pos).getInt(idSize), NONE);
+    }
+
+    /** Returns the position of the second parent of POS, or NONE if it
+     *  has none in the graph. */
+    int parent2(int pos) {
+        return Math.max(record(pos).getInt(idSize + 4), NONE);
+    }
+
+    /** Returns the generation number of POS. Root commits have generation 1. */
+    int generation(int pos) {
+        return record(pos).getInt(idSize + 8);
+    }
+
+    /** Returns the timestamp of POS in milliseconds. */
+    long timestamp(int pos) {
+        return record(pos).getLong(idSize + 12);
+    }
+
+    /** Takes in the records other processes appended since this graph
+     *  was opened. Called holding the lock of the repository before
+     *  add(), so that records are appended after theirs. */
+    void refresh() {
+        long len = file.length();
+        int n = len < HEADER_SIZE ? 0 : (int) ((len - HEADER_SIZE) / recordSize);
+        if (n <= size) {
+            return;
+        }
+        int old = size;
+        size = n;
+        if (tail != null) {
+            for (int i = old; i < n; i += 1) {
+                tail.put(id(i), i);
+            }
+        }
+    }
+
+    /** Appends commit ID with parents PARENT1 and PARENT2 ("" for none)
+     *  and TIMESTAMP, unless it is already indexed. Both parents must
+     *  already be in the graph. Returns the position of ID. */
+    int add(String id, String parent1, String parent2, long timestamp) {
+        return add(id, parent1, parent2, timestamp, false);
+    }
+
+    /** Like add(ID, PARENT1, PARENT2, TIMESTAMP), but if SHALLOW, a parent
+     *  not in the graph is recorded as left out of a shallow clone. */
+    int add(String id, String parent1, String parent2, long timestamp, boolean shallow) {
+        int pos = position(id);
+        if (pos != NONE) {
+            return pos;
+        }
+        int p1 = parentPosition(id, parent1, shallow);
+        int p2 = parentPosition(id, parent2, shallow);
+        int gen = 1 + Math.max(p1 < 0 ? 0 : generation(p1), p2 < 0 ? 0 : generation(p2));
+
+        ByteBuffer rec = ByteBuffer.allocate(recordSize);
+        rec.put(Utils.fromHex(id)).putInt(p1).putInt(p2).putInt(gen).putLong(timestamp);
+        rec.flip();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel ch = raf.getChannel();
+            if (ch.size() < HEADER_SIZE) {
+                ch.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip(), 0);
+            }
+            // A torn record left by an interrupted write is overwritten.
+            ch.write(rec, HEADER_SIZE + (long) size * recordSize);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.wrote(file);
+        pos = size;
+        size += 1;
+        tail.put(id, pos);
+        if (tail.size() > CommitIndex.TAIL_LIMIT) {
+            index.rebuild(this);
+            tail = new HashMap<>();
+        }
+        return pos;
+    }
+
+    /** Returns what the record of commit ID stores for its parent PARENT
+     *  ("" for none): its position, NONE, or SHALLOW if it is not in the
+     *  graph and SHALLOW is true. */
+    private int parentPosition(String id, String parent, boolean shallow) {
+        if (parent.isEmpty()) {
+            return NONE;
+        }
+        int pos = position(parent);
+        if (pos != NONE) {
+            return pos;
+        }
+        if (!shallow) {
+            // a generation number counted without it would be too low
+            throw new IllegalStateException("commit-graph lacks parent " + parent
+                                            + " of commit " + id);
+        }
+        return SHALLOW;
+    }
+
+    /** Removes this graph, so that it is rebuilt when the repository
+     *  next opens it. */
+    void discard() {
+        file.delete();
+        index.delete();
+    }
+
+    /** Rebuilds this graph from the commits of the current repository.
+     *  A parent missing from them was left out of a shallow clone. */
+    void rebuild() {
+        file.delete();
+        size = 0;
+        mapped = 0;
+        records = null;
+        index.delete();
+        tail = null;
+        List<String> ids = Commit.allIds();
+        // id -> {first parent, second parent, timestamp}
+        Map<String, String[]> pending = new HashMap<>();
+        for (String id : ids) {
+            Commit cmt = Commit.read(id);
+            pending.put(id, new String[] {cmt.getParent(), cmt.getSecondParent(),
+                                          Long.toString(cmt.getTimestamp())});
+        }
+        // Parents have to be appended before their children.
+        for (String id : ids) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String top = stack.peek();
+                String[] cmt = pending.get(top);
+                if (cmt == null) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (int i = 0; i < 2; i += 1) {
+                    if (!cmt[i].isEmpty() && pending.containsKey(cmt[i])) {
+                        stack.push(cmt[i]);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    pending.remove(top);
+                    add(top, cmt[0], cmt[1], Long.parseLong(cmt[2]), true);
+                }
+            }
+        }
+    }
+
+    /** Returns the lookup table for records not covered by the index,
+     *  rewriting the index first if it is out of step with the graph. */
+    private Map<String, Integer> tail() {
+        if (tail == null) {
+            if (index.count() > size) {
+                index.rebuild(this);
+            }
+            tail = new HashMap<>();
+            for (int i = index.count(); i < size; i += 1) {
+                tail.put(id(i), i);
+            }
+        }
+        return tail;
+    }
+
+    /** Returns a buffer positioned at the record POS. */
+    private ByteBuffer record(int pos) {
+        if (pos < 0 || pos >= size) {
+            throw new IndexOutOfBoundsException("commit-graph position " + pos);
+        }
+        if (pos >= mapped) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                records = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE, (long) size * recordSize);
+                mapped = size;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return records.duplicate().position(pos * recordSize).slice();
+    }
+}
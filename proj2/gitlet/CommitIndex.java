@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/** A sorted index of the ids in a CommitGraph, laid out like git's pack
+ *  .idx files.
+ *
+ *  The file starts with the magic "CIDX", a version and the number of
+ *  graph records it covers, COUNT. A 256 entry fan-out table follows,
+ *  whose entry i is the number of ids whose first byte is <= i. Then come
+ *  COUNT entries of (raw id, 4 byte graph position), sorted by id, where
+ *  ids have the width of the object format.
+ *
+ *  Commits appended to the graph after the index was written form a
+ *  short unsorted tail that CommitGraph scans itself; the index is
+ *  rewritten once that tail grows past TAIL_LIMIT entries.
+ */
+class CommitIndex {
+
+    /** Longest unsorted tail tolerated before the index is rewritten. */
+    static final int TAIL_LIMIT = 256;
+
+    /** File magic, "CIDX". */
+    private static final int MAGIC = 0x43494458;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int FANOUT_SIZE = 256 * 4;
+
+    /** The file backing this index. */
+    private final File file;
+    /** Width of an id and of an entry in bytes. */
+    private final int idSize;
+    private final int entrySize;
+    /** Number of graph records covered by the index. */
+    private int count;
+    /** Fan-out table followed by the sorted entries. */
+    private MappedByteBuffer table;
+
+    CommitIndex(File file) {
+        this.file = file;
+        this.idSize = Utils.rawUidLength();
+        this.entrySize = idSize + 4;
+        load();
+    }
+
+    /** Returns the number of graph records covered by this index. */
+    int count() {
+        return count;
+    }
+
+    /** Returns the graph position of the commit whose raw id is ID, or
+     *  CommitGraph.NONE. */
+    int lookup(byte[] id) {
+        int lo = lowerBound(id, id.length * 2);
+        if (lo < count && compare(lo, id, id.length * 2) == 0) {
+            return table.getInt(entryOffset(lo) + idSize);
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** Returns the graph positions of up to LIMIT commits whose ids start
+     *  with the hexadecimal numeral PREFIX, in id order. */
+    int[] match(String prefix, int limit) {
+        byte[] raw = prefixBytes(prefix);
+        int[] result = new int[limit];
+        int n = 0;
+        for (int i = lowerBound(raw, prefix.length());
+             i < count && n < limit && compare(i, raw, prefix.length()) == 0; i += 1) {
+            result[n] = table.getInt(entryOffset(i) + idSize);
+            n += 1;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Rewrites this index to cover every record of GRAPH. */
+    void rebuild(CommitGraph graph) {
+        int n = graph.size();
+        Integer[] order = new Integer[n];
+        byte[][] ids = new byte[n][];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = i;
+            ids[i] = graph.rawId(i);
+        }
+        Arrays.sort(order, (x, y) -> Arrays.compareUnsigned(ids[x], ids[y]));
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + FANOUT_SIZE + n * entrySize);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(n);
+        int[] fanout = new int[256];
+        for (byte[] id : ids) {
+            fanout[id[0] & 0xff] += 1;
+        }
+        int total = 0;
+        for (int i = 0; i < 256; i += 1) {
+            total += fanout[i];
+            buf.putInt(total);
+        }
+        for (int pos : order) {
+            buf.put(ids[pos]).putInt(pos);
+        }
+        buf.flip();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.getChannel().write(buf);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        load();
+    }
+
+    /** Removes the index file, for when the graph itself is rebuilt. */
+    void delete() {
+        file.delete();
+        count = 0;
+        table = null;
+    }
+
+    /** Maps the index file, treating a missing or foreign file as empty. */
+    private void load() {
+        count = 0;
+        table = null;
+        if (file.length() < HEADER_SIZE + FANOUT_SIZE) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                return;
+            }
+            int n = raf.readInt();
+            if (raf.length() < HEADER_SIZE + FANOUT_SIZE + (long) n * entrySize) {
+                return;
+            }
+            table = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                                         FANOUT_SIZE + (long) n * entrySize);
+            count = n;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the first entry whose id is not less than the first DIGITS
+     *  hex digits of KEY, narrowing the search with the fan-out table. */
+    private int lowerBound(byte[] key, int digits) {
+        if (count == 0) {
+            return 0;
+        }
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : table.getInt((first - 1) * 4);
+        int hi = table.getInt(first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key, digits) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compares the first DIGITS hex digits of entry I with those of KEY. */
+    private int compare(int i, byte[] key, int digits) {
+        int off = entryOffset(i);
+        for (int d = 0; d < digits; d += 2) {
+            int a = table.get(off + d / 2) & 0xff;
+            int b = key[d / 2] & 0xff;
+            if (d + 1 == digits) {
+                a >>= 4;
+                b >>= 4;
+            }
+            if (a != b) {
+                return Integer.compare(a, b);
+            }
+        }
+        return 0;
+    }
+
+    private int entryOffset(int i) {
+        return FANOUT_SIZE + i * entrySize;
+    }
+
+    /** Returns the bytes of the hexadecimal numeral PREFIX, padding an odd
+     *  final digit with 0. */
+    private static byte[] prefixBytes(String prefix) {
+        return Utils.fromHex(prefix.length() % 2 == 0 ? prefix : prefix + "0");
+    }
+}
@@ -0,0 +1,297 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/** An append-only log of what global-log and find need to know about
+ *  each commit, so that neither reads commit objects.
+ *
+ *  The file .gitlet/commit-log starts with the magic "CLOG" and a format
+ *  version, followed by one record per commit, in the order they were
+ *  made:
+ *
+ *      length      4 bytes   length of the rest of the record
+ *      id         ID bytes   raw commit id
+ *      parent1    ID bytes   raw id of the first parent, zeros if none
+ *      parent2    ID bytes   raw id of the second parent, zeros if none
+ *      timestamp   8 bytes   commit time in milliseconds
+ *      message               UTF-8, the rest of the record
+ *
+ *  where ID is the id width of the object format.
+ *  Messages are looked up through a MessageIndex kept next to the log. A
+ *  torn last record, left by an interrupted append, is ignored and
+ *  overwritten by the next one.
+ */
+class CommitLog {
+
+    /** The default location of the log. */
+    static final File LOG_FILE = Utils.join(Repository.GITLET_DIR, "commit-log");
+
+    /** File magic, "CLOG". */
+    private static final int MAGIC = 0x434c4f47;
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+
+    /** The metadata of one commit. */
+    static class Entry {
+        /** Offset of the record in the log. */
+        final long offset;
+        final String id;
+        /** Parent ids, "" if missing. */
+        final String parent1;
+        final String parent2;
+        final long timestamp;
+        final String message;
+
+        Entry(long offset, String id, String parent1, String parent2,
+              long timestamp, String message) {
+            this.offset = offset;
+            this.id = id;
+            this.parent1 = parent1;
+            this.parent2 = parent2;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+    }
+
+    /** Log of the current repository, opened lazily. */
+    private static CommitLog current;
+
+    /** The file backing this log. */
+    private final File file;
+    /** Width of an id in bytes, and size of a record without its
+     *  message, after the length field. */
+    private final int idSize;
+    private final int fixedSize;
+    /** Stands for a missing parent. */
+    private final byte[] noParent;
+    /** The index of the messages of the first records. */
+    private final MessageIndex index;
+    /** Offset just past the last complete record, or -1 if not known yet. */
+    private long end = -1;
+
+    CommitLog(File file) {
+        this.file = file;
+        this.idSize = Utils.rawUidLength();
+        this.fixedSize = 3 * idSize + 8;
+        this.noParent = new byte[idSize];
+        this.index = new MessageIndex(new File(file.getPath() + ".idx"));
+    }
+
+    /** Returns the log of the current repository, building it from the
+     *  commit objects if the repository predates it. */
+    static CommitLog open() {
+        if (current == null) {
+            current = new CommitLog(LOG_FILE);
+            if (!current.hasValidHeader()) {
+                current.rebuild();
+            } else if (current.index.covered() > current.end()) {
+                current.index.rebuild(current);
+            }
+        }
+        return current;
+    }
+
+    /** Returns true iff the backing file exists and has the expected
+     *  magic and version. */
+    boolean hasValidHeader() {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.readInt() == MAGIC && raf.readInt() == VERSION;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the file backing this log. */
+    File file() {
+        return file;
+    }
+
+    /** Takes in the records other processes appended since the end of
+     *  this log was found. Called holding the lock of the repository
+     *  before add(). */
+    void refresh() {
+        end = -1;
+    }
+
+    /** Appends commit ID with parents PARENT1 and PARENT2 ("" for none),
+     *  TIMESTAMP and MESSAGE. The message index is rewritten once the
+     *  records it does not cover pass MessageIndex.TAIL_LIMIT bytes. */
+    void add(String id, String parent1, String parent2, long timestamp, String message) {
+        byte[] msg = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer rec = ByteBuffer.allocate(4 + fixedSize + msg.length);
+        rec.putInt(fixedSize + msg.length).put(Utils.fromHex(id));
+        rec.put(parent1.isEmpty() ? noParent : Utils.fromHex(parent1));
+        rec.put(parent2.isEmpty() ? noParent : Utils.fromHex(parent2));
+        rec.putLong(timestamp).put(msg).flip();
+        long at = end();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel ch = raf.getChannel();
+            if (at == HEADER_SIZE) {
+                ch.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip(), 0);
+            }
+            ch.write(rec, at);
+            ch.truncate(at + rec.limit());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.wrote(file);
+        end = at + rec.limit();
+        if (end - index.covered() > MessageIndex.TAIL_LIMIT) {
+            index.rebuild(this);
+        }
+    }
+
+    /** Calls ACTION on every record from offset FROM on, in log order. */
+    void forEach(long from, Consumer<Entry> action) {
+        long stop = end();
+        if (from >= stop) {
+            return;
+        }
+        ByteBuffer buf = map();
+        for (long pos = from; pos < stop; pos += 4 + buf.getInt((int) pos)) {
+            action.accept(entryAt(buf, (int) pos));
+        }
+    }
+
+    /** Calls ACTION on every record. */
+    void forEach(Consumer<Entry> action) {
+        forEach(HEADER_SIZE, action);
+    }
+
+    /** Returns the ids of the commits whose message is MESSAGE, in log
+     *  order. */
+    List<String> find(String message) {
+        return lookup(List.of(MessageIndex.messageKey(message)), message::equals);
+    }
+
+    /** Returns the ids of the commits whose message contains TEXT, in log
+     *  order. Only messages sharing the whole words of TEXT are read,
+     *  unless TEXT has none. */
+    List<String> findContaining(String text) {
+        List<String> words = MessageIndex.innerWords(text);
+        if (words.isEmpty()) {
+            List<String> result = new ArrayList<>();
+            forEach(e -> {
+                if (e.message.contains(text)) {
+                    result.add(e.id);
+                }
+            });
+            return result;
+        }
+        List<String> keys = new ArrayList<>();
+        for (String word : words) {
+            keys.add(MessageIndex.wordKey(word));
+        }
+        return lookup(keys, m -> m.contains(text));
+    }
+
+    /** Rebuilds this log, in commit graph order, from the commits of the
+     *  current repository. */
+    void rebuild() {
+        file.delete();
+        index.delete();
+        end = -1;
+        CommitGraph graph = CommitGraph.open();
+        for (int pos = 0; pos < graph.size(); pos += 1) {
+            String id = graph.id(pos);
+            Commit cmt = Commit.read(id);
+            add(id, cmt.getParent(), cmt.getSecondParent(), cmt.getTimestamp(),
+                cmt.getMessage());
+        }
+    }
+
+    /** Returns the offset just past the last complete record. */
+    long end() {
+        if (end < 0) {
+            long length = file.length();
+            // the index covers whole records, unless it is stale
+            long covered = index.covered();
+            end = covered <= length ? Math.max(HEADER_SIZE, covered) : HEADER_SIZE;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                while (end + 4 <= length) {
+                    raf.seek(end);
+                    long next = end + 4 + raf.readInt();
+                    if (next > length || next < end + 4 + fixedSize) {
+                        break;
+                    }
+                    end = next;
+                }
+            } catch (IOException excp) {
+                end = HEADER_SIZE;
+            }
+        }
+        return end;
+    }
+
+    /** Returns the ids of the commits whose message satisfies MATCH, among
+     *  those indexed under all of KEYS and those not indexed yet. */
+    private List<String> lookup(List<String> keys, Predicate<String> match) {
+        TreeSet<Long> offsets = null;
+        for (String key : keys) {
+            TreeSet<Long> found = new TreeSet<>();
+            for (long off : index.lookup(key)) {
+                found.add(off);
+            }
+            if (offsets == null) {
+                offsets = found;
+            } else {
+                offsets.retainAll(found);
+            }
+        }
+        List<String> result = new ArrayList<>();
+        if (!offsets.isEmpty()) {
+            ByteBuffer buf = map();
+            for (long off : offsets) {
+                Entry e = entryAt(buf, (int) off);
+                if (match.test(e.message)) {
+                    result.add(e.id);
+                }
+            }
+        }
+        forEach(Math.max(HEADER_SIZE, index.covered()), e -> {
+            if (match.test(e.message)) {
+                result.add(e.id);
+            }
+        });
+        return result;
+    }
+
+    /** Returns a read-only view of the complete records. */
+    private ByteBuffer map() {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, end());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private Entry entryAt(ByteBuffer buf, int pos) {
+        int length = buf.getInt(pos);
+        byte[] raw = new byte[idSize];
+        buf.get(pos + 4, raw);
+        String id = Utils.toHex(raw);
+        buf.get(pos + 4 + idSize, raw);
+        String parent1 = Arrays.equals(raw, noParent) ? "" : Utils.toHex(raw);
+        buf.get(pos + 4 + 2 * idSize, raw);
+        String parent2 = Arrays.equals(raw, noParent) ? "" : Utils.toHex(raw);
+        long timestamp = buf.getLong(pos + 4 + 3 * idSize);
+        byte[] msg = new byte[length - fixedSize];
+        buf.get(pos + 4 + fixedSize, msg);
+        return new Entry(pos, id, parent1, parent2, timestamp,
+                         new String(msg, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/** Repository settings, kept in .gitlet/config as key=value lines. The
+ *  file is a ref file of the Transaction: it is rewritten whole, by
+ *  atomic rename, when the command commits, and not if another command
+ *  changed it meanwhile, since it holds the object format. */
+class Config {
+
+    static final File CONFIG_FILE = Utils.join(Repository.GITLET_DIR, "config");
+
+    /** Version of the on-disk object format. Repositories without a
+     *  config file predate versioning and have version 0. */
+    static final String FORMAT_VERSION = "core.repositoryformatversion";
+    /** Version written by init and by migrate. */
+    static final int CURRENT_FORMAT = 1;
+    /** When "true", objects are checked against their ids as they are
+     *  read. Off by default, as it costs a hash per object read. */
+    static final String VERIFY_OBJECTS = "core.verifyobjects";
+    /** In a clone made without blobs, the name of the remote that the
+     *  missing blobs are fetched from when first needed. */
+    static final String PARTIAL_CLONE = "extensions.partialclone";
+
+    /** The settings, loaded on first use, and the file they came from. */
+    private static Properties cached;
+    private static byte[] loaded;
+
+    /** Forgets the loaded settings, so that the next use reads the file
+     *  again. A Server calls this before each command: another command
+     *  may have changed them, or set them and then failed. */
+    static void reset() {
+        cached = null;
+        loaded = null;
+    }
+
+    /** Returns the value of KEY, or DEFAULTVALUE if it is not set. */
+    static String get(String key, String defaultValue) {
+        return load().getProperty(key, defaultValue);
+    }
+
+    /** Sets KEY to VALUE. */
+    static void set(String key, String value) {
+        Properties props = load();
+        props.setProperty(key, value);
+        store(props);
+    }
+
+    /** Sets KEY to VALUE for the config command, which may only set the
+     *  settings a user can tune: core.verifyobjects, core.fsync and
+     *  gc.graceperiod. The format version and the extensions describe
+     *  what is on disk, and changing them by hand makes the repository
+     *  unreadable. */
+    static void setByUser(String key, String value) {
+        switch (key) {
+            case VERIFY_OBJECTS:
+            case Transaction.FSYNC:
+                if (!value.equals("true") && !value.equals("false")) {
+                    throw Utils.error("%s must be true or false.", key);
+                }
+                break;
+            case GarbageCollector.GRACE_PERIOD:
+                try {
+                    if (Long.parseLong(value) < 0) {
+                        throw Utils.error("%s must be a number of seconds.", key);
+                    }
+                } catch (NumberFormatException excp) {
+                    throw Utils.error("%s must be a number of seconds.", key);
+                }
+                break;
+            default:
+                throw Utils.error("%s cannot be set by config.", key);
+        }
+        set(key, value);
+    }
+
+    /** Removes KEY. */
+    static void unset(String key) {
+        Properties props = load();
+        props.remove(key);
+        store(props);
+    }
+
+    private static void store(Properties props) {
+        StringWriter out = new StringWriter();
+        try {
+            props.store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // what the write is checked against, should the settings have
+        // been loaded before the transaction began
+        Transaction.saw(CONFIG_FILE, loaded);
+        Transaction.write(CONFIG_FILE, out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the object format version of the repository. */
+    static int formatVersion() {
+        return Integer.parseInt(get(FORMAT_VERSION, "0"));
+    }
+
+    /** Returns true iff objects should be verified as they are read. */
+    static boolean verifyObjects() {
+        return Boolean.parseBoolean(get(VERIFY_OBJECTS, "false"));
+    }
+
+    private static Properties load() {
+        if (cached == null) {
+            cached = new Properties();
+            loaded = Transaction.read(CONFIG_FILE);
+            if (loaded != null) {
+                try {
+                    cached.load(new StringReader(new String(loaded, StandardCharsets.UTF_8)));
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** Kills gitlet commands at each of Transaction.CRASH_POINTS and checks
+ *  that the repository comes back either as it was before the command or
+ *  as it would be after it, never in between.
+ *
+ *  For each scenario, a repository is set up by running commands, and
+ *  its state (status without the working-file sections, and log without
+ *  ids and dates) is recorded. global-log is left out: a commit whose
+ *  command crashed stays in it, like any commit no branch reaches. The
+ *  command under test is run once on a copy to get the state after it,
+ *  and then once on a fresh copy per crash point, with GITLET_CRASH_AT
+ *  set. The state read back, which first recovers the transaction, must
+ *  be the one expected for that point: before the command while
+ *  .gitlet/txn is incomplete, after it from then on. Objects are verified
+ *  as they are read.
+ *
+ *  Creates and removes the directory crash-test below the current one.
+ *
+ *  Usage: java gitlet.CrashTest
+ */
+public class CrashTest {
+
+    private static final File ROOT = Utils.join(Repository.CWD, "crash-test");
+
+    /** A repository set up by SETUP, and a COMMAND to crash. */
+    private static final class Scenario {
+        final String name;
+        final String[][] setup;
+        final String[] command;
+
+        Scenario(String name, String[][] setup, String... command) {
+            this.name = name;
+            this.setup = setup;
+            this.command = command;
+        }
+    }
+
+    /** Whether the state after a crash at each of CRASH_POINTS should be
+     *  the state after the command (rather than before it). */
+    private static final Map<String, Boolean> EXPECT_AFTER = Map.of(
+        "objects", false, "torn-journal", false, "journal", true, "refs", true, "done", true);
+
+    private static final String[][] BASE = {
+        {"init"}, {"config", "core.verifyobjects", "true"},
+        {"write", "a.txt", "a1"}, {"add", "a.txt"}, {"commit", "a1"},
+        {"branch", "other"},
+        {"write", "b.txt", "b1"}, {"add", "b.txt"}, {"commit", "b1"},
+        {"checkout", "other"},
+        {"write", "c.txt", "c1"}, {"add", "c.txt"}, {"commit", "c1"},
+        {"checkout", "master"},
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<Scenario> scenarios = List.of(
+            new Scenario("add", with(new String[] {"write", "d.txt", "d1"}), "add", "d.txt"),
+            new Scenario("commit", with(new String[] {"write", "d.txt", "d1"},
+                                        new String[] {"add", "d.txt"}), "commit", "d1"),
+            new Scenario("rm", with(), "rm", "b.txt"),
+            new Scenario("checkout", with(), "checkout", "other"),
+            new Scenario("merge", with(), "merge", "other"),
+            new Scenario("rm-branch", with(), "rm-branch", "other"));
+        int failures = 0;
+        delete(ROOT.toPath());
+        try {
+            System.out.printf("%-12s", "");
+            for (String point : Transaction.CRASH_POINTS) {
+                System.out.printf(" %-13s", point);
+            }
+            System.out.println();
+            for (Scenario s : scenarios) {
+                File base = Utils.join(ROOT, s.name);
+                base.mkdirs();
+                for (String[] step : s.setup) {
+                    run(base, null, step);
+                }
+                String before = state(base);
+                File after = Utils.join(ROOT, s.name + "-after");
+                copy(base.toPath(), after.toPath());
+                run(after, null, s.command);
+                String expected = state(after);
+                if (expected.equals(before)) {
+                    throw new IllegalStateException(s.name + " changes nothing");
+                }
+
+                System.out.printf("%-12s", s.name);
+                for (String point : Transaction.CRASH_POINTS) {
+                    File trial = Utils.join(ROOT, s.name + "-" + point);
+                    copy(base.toPath(), trial.toPath());
+                    int status = run(trial, point, s.command);
+                    String got = state(trial);
+                    String result;
+                    if (status != Transaction.CRASH_STATUS) {
+                        result = "not reached";
+                    } else if (got.equals(before)) {
+                        result = "before";
+                    } else if (got.equals(expected)) {
+                        result = "after";
+                    } else {
+                        result = "INCONSISTENT";
+                    }
+                    boolean ok = status != Transaction.CRASH_STATUS
+                        || result.equals(EXPECT_AFTER.get(point) ? "after" : "before");
+                    if (!ok) {
+                        failures += 1;
+                        result = result + "!";
+                    }
+                    System.out.printf(" %-13s", result);
+                }
+                System.out.println();
+            }
+        } finally {
+            delete(ROOT.toPath());
+        }
+        System.out.println(failures == 0 ? "All crash points recovered."
+                                         : failures + " crash points did not recover.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /** Returns the BASE setup followed by STEPS. */
+    private static String[][] with(String[]... steps) {
+        return Stream.concat(Stream.of(BASE), Stream.of(steps)).toArray(String[][]::new);
+    }
+
+    /** Runs ARGS in DIR, crashing at CRASHAT if it is not null, and
+     *  returns the exit status. A "write FILE TEXT" step writes a working
+     *  file instead. */
+    private static int run(File dir, String crashAt, String... args)
+        throws IOException, InterruptedException {
+        return run(dir, crashAt, null, args);
+    }
+
+    private static int run(File dir, String crashAt, StringBuilder output, String... args)
+        throws IOException, InterruptedException {
+        if (args[0].equals("write")) {
+            Utils.writeContents(Utils.join(dir, args[1]), args[2] + "\n");
+            return 0;
+        }
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add("gitlet.Main");
+        cmd.addAll(List.of(args));
+        ProcessBuilder pb = new ProcessBuilder(cmd).directory(dir).redirectErrorStream(true);
+        if (crashAt != null) {
+            pb.environment().put("GITLET_CRASH_AT", crashAt);
+        }
+        Process p = pb.start();
+        String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (output != null) {
+            output.append(out);
+        }
+        return p.waitFor();
+    }
+
+    /** Returns what the refs of the repository in DIR say, read by new
+     *  processes. */
+    private static String state(File dir) throws IOException, InterruptedException {
+        StringBuilder out = new StringBuilder();
+        run(dir, null, out, "status");
+        int cut = out.indexOf("=== Modifications Not Staged For Commit ===");
+        if (cut >= 0) {
+            out.setLength(cut);
+        }
+        StringBuilder log = new StringBuilder();
+        run(dir, null, log, "log");
+        String kept = log.toString().lines()
+            .filter(l -> !l.startsWith("commit ") && !l.startsWith("Date: ")
+                         && !l.startsWith("Merge: "))
+            .collect(Collectors.joining("\n"));
+        return out + kept;
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        try (Stream<Path> paths = Files.walk(from)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Path target = to.resolve(from.relativize(p));
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(p, target);
+                }
+            }
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : paths.sorted((a, b) -> b.compareTo(a)).collect(Collectors.toList())) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Binary deltas between two versions of a blob, used by packfiles.
+ *
+ *  A delta starts with the lengths of the base and of the result as
+ *  varints, followed by instructions:
+ *
+ *      0 LEN BYTES       insert the next LEN bytes of the delta
+ *      1 OFFSET LEN      copy LEN bytes of the base starting at OFFSET
+ *
+ *  where OFFSET and LEN are varints. Matches are found by indexing the
+ *  base in BLOCK byte blocks and sliding a rolling hash over the target.
+ */
+class Delta {
+
+    /** Size of the blocks indexed in the base. */
+    private static final int BLOCK = 16;
+    private static final int HASH_BASE = 257;
+    private static final byte INSERT = 0;
+    private static final byte COPY = 1;
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        // hash of each aligned block of BASE -> its offset
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int off = 0; off + BLOCK <= base.length; off += BLOCK) {
+            blocks.putIfAbsent(hash(base, off), off);
+        }
+        int pow = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            pow *= HASH_BASE;
+        }
+
+        int insertStart = 0;
+        int pos = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (pos + BLOCK <= target.length) {
+            Integer match = blocks.get(h);
+            if (match != null && equal(base, match, target, pos, BLOCK)) {
+                int bStart = match;
+                int tStart = pos;
+                // extend the match backwards into the pending insert
+                while (bStart > 0 && tStart > insertStart
+                       && base[bStart - 1] == target[tStart - 1]) {
+                    bStart -= 1;
+                    tStart -= 1;
+                }
+                int len = pos - tStart + BLOCK;
+                while (bStart + len < base.length && tStart + len < target.length
+                       && base[bStart + len] == target[tStart + len]) {
+                    len += 1;
+                }
+                writeInsert(out, target, insertStart, tStart);
+                out.write(COPY);
+                writeVarint(out, bStart);
+                writeVarint(out, len);
+                pos = tStart + len;
+                insertStart = pos;
+                if (pos + BLOCK <= target.length) {
+                    h = hash(target, pos);
+                }
+                continue;
+            }
+            if (pos + BLOCK < target.length) {
+                h = (h - target[pos] * pow) * HASH_BASE + target[pos + BLOCK];
+            }
+            pos += 1;
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] cursor = {0};
+        int baseLen = readVarint(delta, cursor);
+        int resultLen = readVarint(delta, cursor);
+        if (baseLen != base.length) {
+            throw new IllegalArgumentException("delta does not match its base");
+        }
+        byte[] result = new byte[resultLen];
+        int out = 0;
+        while (cursor[0] < delta.length) {
+            byte op = delta[cursor[0]];
+            cursor[0] += 1;
+            if (op == INSERT) {
+                int len = readVarint(delta, cursor);
+                System.arraycopy(delta, cursor[0], result, out, len);
+                cursor[0] += len;
+                out += len;
+            } else {
+                int off = readVarint(delta, cursor);
+                int len = readVarint(delta, cursor);
+                System.arraycopy(base, off, result, out, len);
+                out += len;
+            }
+        }
+        return result;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    private static int hash(byte[] data, int off) {
+        int h = 0;
+        for (int i = off; i < off + BLOCK; i += 1) {
+            h = h * HASH_BASE + data[i];
+        }
+        return h;
+    }
+
+    private static boolean equal(byte[] a, int aOff, byte[] b, int bOff, int len) {
+        for (int i = 0; i < len; i += 1) {
+            if (a[aOff + i] != b[bOff + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes V, which must be non-negative, 7 bits at a time. */
+    private static void writeVarint(ByteArrayOutputStream out, int v) {
+        while (v >= 0x80) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    /** Reads a varint from DATA at CURSOR[0], advancing the cursor. */
+    private static int readVarint(byte[] data, int[] cursor) {
+        int v = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[cursor[0]] & 0xff;
+            cursor[0] += 1;
+            v |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return v;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+/** Line diffs and three-way line merges.
+ *
+ *  Differences are found with the linear-space variant of Myers' O(ND)
+ *  algorithm ("An O(ND) Difference Algorithm and Its Variations", 1986):
+ *  each step finds the middle snake of an optimal path from both ends at
+ *  once and splits the problem there. Besides the texts themselves, only
+ *  a hash and a start offset per line, one changed bit per line and the
+ *  two diagonal arrays of the current step are kept, so memory stays
+ *  linear in the input. When a step costs more than TOO_EXPENSIVE
+ *  diagonals, it splits at the furthest point reached instead, as GNU
+ *  diff does, trading minimality for time on very different inputs.
+ *
+ *  Texts are read from ByteBuffers, so working files can be diffed
+ *  through a memory mapping without copying them.
+ */
+class Diff {
+
+    /** Lines of context around each hunk of a unified diff. */
+    static final int CONTEXT = 3;
+    /** Cost, in diagonals, above which a step stops looking for the
+     *  optimal split. */
+    private static final int TOO_EXPENSIVE = 4096;
+    /** Number of leading bytes checked by isBinary. */
+    private static final int BINARY_CHECK = 8000;
+
+    /** The lines of a text. Each line includes its terminating newline,
+     *  except perhaps the last. */
+    static final class Lines {
+        private final ByteBuffer buf;
+        /** Offset of each line, then the end of the text. */
+        private final int[] start;
+        private final int[] hash;
+        private final int size;
+
+        Lines(ByteBuffer buf) {
+            this.buf = buf;
+            int limit = buf.limit();
+            int n = 0;
+            for (int i = 0; i < limit; i += 1) {
+                if (buf.get(i) == '\n') {
+                    n += 1;
+                }
+            }
+            if (limit > 0 && buf.get(limit - 1) != '\n') {
+                n += 1;
+            }
+            size = n;
+            start = new int[n + 1];
+            hash = new int[n];
+            int line = 0;
+            int h = 0;
+            for (int i = 0; i < limit; i += 1) {
+                byte b = buf.get(i);
+                h = 31 * h + b;
+                if (b == '\n' || i == limit - 1) {
+                    hash[line] = h;
+                    line += 1;
+                    start[line] = i + 1;
+                    h = 0;
+                }
+            }
+        }
+
+        Lines(byte[] content) {
+            this(ByteBuffer.wrap(content));
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return size;
+        }
+
+        /** Returns true iff line I of this equals line J of OTHER. */
+        boolean equals(int i, Lines other, int j) {
+            if (hash[i] != other.hash[j]) {
+                return false;
+            }
+            int len = start[i + 1] - start[i];
+            if (len != other.start[j + 1] - other.start[j]) {
+                return false;
+            }
+            return buf.slice(start[i], len).equals(other.buf.slice(other.start[j], len));
+        }
+
+        /** Returns true iff the last line has no newline. */
+        boolean missingFinalNewline() {
+            return size > 0 && buf.get(start[size] - 1) != '\n';
+        }
+
+        /** Writes lines FROM to TO (exclusive) to OUT. */
+        void write(int from, int to, OutputStream out) throws IOException {
+            for (int i = start[from]; i < start[to]; i += 1) {
+                out.write(buf.get(i));
+            }
+        }
+
+        /** Writes line I to OUT with PREFIX, adding a newline and git's
+         *  "\ No newline at end of file" if it has none. */
+        void writeLine(int i, char prefix, OutputStream out) throws IOException {
+            out.write(prefix);
+            write(i, i + 1, out);
+            if (i == size - 1 && missingFinalNewline()) {
+                out.write('\n');
+                out.write("\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /** A change replacing lines [aStart, aEnd) of one text with lines
+     *  [bStart, bEnd) of another. */
+    static final class Hunk {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** Returns true iff CONTENT looks binary: it has a 0 byte among its
+     *  first bytes, as git checks. */
+    static boolean isBinary(ByteBuffer content) {
+        int n = Math.min(content.limit(), BINARY_CHECK);
+        for (int i = 0; i < n; i += 1) {
+            if (content.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the changes turning A into B, in order. */
+    static List<Hunk> diff(Lines a, Lines b) {
+        BitSet changedA = new BitSet(a.size());
+        BitSet changedB = new BitSet(b.size());
+        new Diff(a, b, changedA, changedB).compare();
+        List<Hunk> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (i < a.size() && j < b.size() && !changedA.get(i) && !changedB.get(j)) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int i0 = i;
+            int j0 = j;
+            while (i < a.size() && changedA.get(i)) {
+                i += 1;
+            }
+            while (j < b.size() && changedB.get(j)) {
+                j += 1;
+            }
+            hunks.add(new Hunk(i0, i, j0, j));
+        }
+        return hunks;
+    }
+
+    /** Writes a unified diff turning A, named NAMEA, into B, named NAMEB,
+     *  to OUT. Does nothing if A and B have the same lines. */
+    static void unified(String nameA, String nameB, Lines a, Lines b, OutputStream out)
+        throws IOException {
+        List<Hunk> hunks = diff(a, b);
+        if (hunks.isEmpty()) {
+            return;
+        }
+        out.write(("--- " + nameA + "\n+++ " + nameB + "\n").getBytes(StandardCharsets.UTF_8));
+        int h = 0;
+        while (h < hunks.size()) {
+            // join hunks whose contexts touch
+            int last = h;
+            while (last + 1 < hunks.size()
+                   && hunks.get(last + 1).aStart - hunks.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            Hunk first = hunks.get(h);
+            int aFrom = Math.max(0, first.aStart - CONTEXT);
+            int bFrom = first.bStart - (first.aStart - aFrom);
+            int aTo = Math.min(a.size(), hunks.get(last).aEnd + CONTEXT);
+            int bTo = hunks.get(last).bEnd + (aTo - hunks.get(last).aEnd);
+            out.write(("@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo) + " @@\n")
+                      .getBytes(StandardCharsets.UTF_8));
+            int i = aFrom;
+            for (int k = h; k <= last; k += 1) {
+                Hunk hunk = hunks.get(k);
+                for (; i < hunk.aStart; i += 1) {
+                    a.writeLine(i, ' ', out);
+                }
+                for (i = hunk.aStart; i < hunk.aEnd; i += 1) {
+                    a.writeLine(i, '-', out);
+                }
+                for (int j = hunk.bStart; j < hunk.bEnd; j += 1) {
+                    b.writeLine(j, '+', out);
+                }
+            }
+            for (; i < aTo; i += 1) {
+                a.writeLine(i, ' ', out);
+            }
+            h = last + 1;
+        }
+    }
+
+    /** The outcome of a three-way merge. */
+    static final class Merge {
+        /** The merged text, with conflict markers where needed. */
+        final byte[] content;
+        /** True iff some region was changed differently on both sides. */
+        final boolean conflict;
+
+        Merge(byte[] content, boolean conflict) {
+            this.content = content;
+            this.conflict = conflict;
+        }
+    }
+
+    /** Merges the changes from BASE to OURS and from BASE to THEIRS. Lines
+     *  changed on one side only take that side's version; a region changed
+     *  on both sides, or changed at the same place, is kept once if both
+     *  made the same change and otherwise written as a conflict between
+     *  "<<<<<<< HEAD", "=======" and ">>>>>>>" lines. */
+    static Merge merge3(Lines base, Lines ours, Lines theirs) {
+        List<Hunk> mine = diff(base, ours);
+        List<Hunk> yours = diff(base, theirs);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean conflict = false;
+        int pos = 0; // next base line to copy
+        int m = 0;
+        int y = 0;
+        try {
+            while (m < mine.size() || y < yours.size()) {
+                // start a group with the hunk that comes first in base
+                boolean startMine = y == yours.size()
+                    || (m < mine.size() && mine.get(m).aStart <= yours.get(y).aStart);
+                int lo = startMine ? mine.get(m).aStart : yours.get(y).aStart;
+                int hi = lo;
+                int m0 = m;
+                int y0 = y;
+                // take in every hunk overlapping or touching the group
+                boolean grew = true;
+                while (grew) {
+                    grew = false;
+                    if (m < mine.size() && mine.get(m).aStart <= hi) {
+                        hi = Math.max(hi, mine.get(m).aEnd);
+                        m += 1;
+                        grew = true;
+                    }
+                    if (y < yours.size() && yours.get(y).aStart <= hi) {
+                        hi = Math.max(hi, yours.get(y).aEnd);
+                        y += 1;
+                        grew = true;
+                    }
+                }
+                base.write(pos, lo, out);
+                pos = hi;
+                if (y == y0) {
+                    writeSide(mine, m0, m, lo, hi, ours, out);
+                } else if (m == m0) {
+                    writeSide(yours, y0, y, lo, hi, theirs, out);
+                } else {
+                    ByteArrayOutputStream left = new ByteArrayOutputStream();
+                    ByteArrayOutputStream right = new ByteArrayOutputStream();
+                    writeSide(mine, m0, m, lo, hi, ours, left);
+                    writeSide(yours, y0, y, lo, hi, theirs, right);
+                    if (Arrays.equals(left.toByteArray(), right.toByteArray())) {
+                        left.writeTo(out);
+                    } else {
+                        conflict = true;
+                        out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+                        writeTerminated(left, out);
+                        out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+                        writeTerminated(right, out);
+                        out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            base.write(pos, base.size(), out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new Merge(out.toByteArray(), conflict);
+    }
+
+    /** Writes SIDE's version of base lines [LO, HI), given that HUNKS
+     *  FROM to TO (exclusive) are SIDE's changes within them. */
+    private static void writeSide(List<Hunk> hunks, int from, int to, int lo, int hi,
+                                  Lines side, OutputStream out) throws IOException {
+        Hunk first = hunks.get(from);
+        Hunk last = hunks.get(to - 1);
+        // base lines outside the hunks are unchanged, so they line up
+        int sideLo = first.bStart - (first.aStart - lo);
+        int sideHi = last.bEnd + (hi - last.aEnd);
+        side.write(sideLo, sideHi, out);
+    }
+
+    /** Writes TEXT to OUT, ending it with a newline if it has none. */
+    private static void writeTerminated(ByteArrayOutputStream text, OutputStream out)
+        throws IOException {
+        text.writeTo(out);
+        byte[] bytes = text.toByteArray();
+        if (bytes.length > 0 && bytes[bytes.length - 1] != '\n') {
+            out.write('\n');
+        }
+    }
+
+    /** Returns the unified diff range of lines [FROM, TO). */
+    private static String range(int from, int to) {
+        int count = to - from;
+        if (count == 1) {
+            return Integer.toString(from + 1);
+        }
+        return (count == 0 ? from : from + 1) + "," + count;
+    }
+
+    private final Lines a;
+    private final Lines b;
+    private final BitSet changedA;
+    private final BitSet changedB;
+
+    private Diff(Lines a, Lines b, BitSet changedA, BitSet changedB) {
+        this.a = a;
+        this.b = b;
+        this.changedA = changedA;
+        this.changedB = changedB;
+    }
+
+    /** Marks the lines of A and B outside a longest common subsequence
+     *  as changed. Ranges still to compare are kept on an explicit stack,
+     *  so deep splits cannot overflow the call stack. */
+    private void compare() {
+        Deque<int[]> work = new ArrayDeque<>();
+        work.push(new int[] {0, a.size(), 0, b.size()});
+        while (!work.isEmpty()) {
+            int[] r = work.pop();
+            int aLo = r[0];
+            int aHi = r[1];
+            int bLo = r[2];
+            int bHi = r[3];
+            while (aLo < aHi && bLo < bHi && a.equals(aLo, b, bLo)) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a.equals(aHi - 1, b, bHi - 1)) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                changedA.set(aLo, aHi);
+                changedB.set(bLo, bHi);
+                continue;
+            }
+            int[] split = bisect(aLo, aHi, bLo, bHi);
+            if (split == null) {
+                changedA.set(aLo, aHi);
+                changedB.set(bLo, bHi);
+                continue;
+            }
+            work.push(new int[] {aLo + split[0], aHi, bLo + split[1], bHi});
+            work.push(new int[] {aLo, aLo + split[0], bLo, bLo + split[1]});
+        }
+    }
+
+    /** Returns the point {x, y}, relative to (ALO, BLO), where the middle
+     *  snake of an optimal path through A[ALO, AHI) and B[BLO, BHI)
+     *  begins, or null if the ranges have no line in common. Forward
+     *  paths are extended on odd steps and backward paths on even ones,
+     *  on diagonals k = x - y; v1 and v2 hold the furthest x reached on
+     *  each diagonal from the start and, mirrored, from the end. */
+    private int[] bisect(int aLo, int aHi, int bLo, int bHi) {
+        int len1 = aHi - aLo;
+        int len2 = bHi - bLo;
+        int maxD = (len1 + len2 + 1) / 2;
+        int vOffset = maxD;
+        int vLength = 2 * maxD + 2;
+        int[] v1 = new int[vLength];
+        int[] v2 = new int[vLength];
+        Arrays.fill(v1, -1);
+        Arrays.fill(v2, -1);
+        v1[vOffset + 1] = 0;
+        v2[vOffset + 1] = 0;
+        int delta = len1 - len2;
+        boolean front = (delta % 2 != 0);
+        int k1start = 0;
+        int k1end = 0;
+        int k2start = 0;
+        int k2end = 0;
+        int bestX = 0;
+        int bestY = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            if (d > TOO_EXPENSIVE && bestX + bestY > 0) {
+                return new int[] {bestX, bestY};
+            }
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1Offset = vOffset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1])) {
+                    x1 = v1[k1Offset + 1];
+                } else {
+                    x1 = v1[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < len1 && y1 < len2 && a.equals(aLo + x1, b, bLo + y1)) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                v1[k1Offset] = x1;
+                if (x1 > len1) {
+                    k1end += 2;
+                } else if (y1 > len2) {
+                    k1start += 2;
+                } else {
+                    if (x1 + y1 > bestX + bestY && x1 + y1 < len1 + len2) {
+                        bestX = x1;
+                        bestY = y1;
+                    }
+                    if (front) {
+                        int k2Offset = vOffset + delta - k1;
+                        if (k2Offset >= 0 && k2Offset < vLength && v2[k2Offset] != -1) {
+                            int x2 = len1 - v2[k2Offset];
+                            if (x1 >= x2) {
+                                return new int[] {x1, y1};
+                            }
+                        }
+                    }
+                }
+            }
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2Offset = vOffset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1])) {
+                    x2 = v2[k2Offset + 1];
+                } else {
+                    x2 = v2[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < len1 && y2 < len2
+                       && a.equals(aHi - x2 - 1, b, bHi - y2 - 1)) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                v2[k2Offset] = x2;
+                if (x2 > len1) {
+                    k2end += 2;
+                } else if (y2 > len2) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1Offset = vOffset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < vLength && v1[k1Offset] != -1) {
+                        int x1 = v1[k1Offset];
+                        int y1 = vOffset + x1 - k1Offset;
+                        if (x1 >= len1 - x2) {
+                            return new int[] {x1, y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
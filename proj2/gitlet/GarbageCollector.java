@@ -0,0 +1,259 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Removes the objects that no ref can reach, for the gc command.
+ *
+ *  mark() starts from the commits the refs point at and follows parents
+ *  through the commit graph. It then reads each reachable commit and
+ *  walks its trees, marking every tree and blob found. A tree shared by
+ *  several commits is walked once. With more than PARALLEL_MIN commits,
+ *  this runs on MARK_THREADS threads sharing the sets of marked ids.
+ *
+ *  sweep() deletes the unmarked loose objects last modified before a
+ *  cutoff. The grace period spares the objects a running command has
+ *  written but not yet referred to. Each pack older than the cutoff that
+ *  holds unmarked objects is dropped, and its marked objects are moved
+ *  into one new pack. If commits were removed, the commit graph and log
+ *  are rebuilt, as fetch takes a commit in the graph to be present.
+ */
+class GarbageCollector {
+
+    /** Config key of the grace period in seconds. */
+    static final String GRACE_PERIOD = "gc.graceperiod";
+    /** Grace period used when none is set: two weeks, as in git. */
+    static final long DEFAULT_GRACE = 14 * 24 * 60 * 60;
+    /** Number of threads marking trees and blobs. */
+    private static final int MARK_THREADS =
+        Math.min(8, Runtime.getRuntime().availableProcessors());
+    /** Fewest reachable commits for which marking uses threads. */
+    private static final int PARALLEL_MIN = 256;
+
+    /** The marked objects. */
+    private final Set<String> commits = new HashSet<>();
+    private final Set<String> trees = ConcurrentHashMap.newKeySet();
+    private final Set<String> blobs = ConcurrentHashMap.newKeySet();
+    /** Number of objects removed and the bytes they took on disk. */
+    private int removed;
+    private long reclaimed;
+
+    /** Returns the grace period from the config, in seconds. */
+    static long gracePeriod() {
+        return Long.parseLong(Config.get(GRACE_PERIOD, Long.toString(DEFAULT_GRACE)));
+    }
+
+    /** Marks the commits reachable from ROOTS, with their trees and
+     *  blobs, and the blobs STAGED. */
+    void mark(Collection<String> roots, Collection<String> staged) {
+        CommitGraph graph = CommitGraph.open();
+        boolean[] seen = new boolean[graph.size()];
+        Deque<Integer> work = new ArrayDeque<>();
+        for (String id : roots) {
+            int pos = graph.position(id);
+            if (pos != CommitGraph.NONE) {
+                work.push(pos);
+            }
+        }
+        List<String> reachable = new ArrayList<>();
+        while (!work.isEmpty()) {
+            int pos = work.pop();
+            if (pos == CommitGraph.NONE || seen[pos]) {
+                continue;
+            }
+            seen[pos] = true;
+            reachable.add(graph.id(pos));
+            work.push(graph.parent1(pos));
+            work.push(graph.parent2(pos));
+        }
+        commits.addAll(reachable);
+        blobs.addAll(staged);
+        markCommits(reachable);
+    }
+
+    /** Marks the trees and blobs of the commits IDS. */
+    private void markCommits(List<String> ids) {
+        if (ids.size() < PARALLEL_MIN || MARK_THREADS < 2) {
+            for (String id : ids) {
+                markCommit(id);
+            }
+            return;
+        }
+        // a full queue makes the submitting thread mark the commit itself
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MARK_THREADS, MARK_THREADS,
+            0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MARK_THREADS * 4),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (String id : ids) {
+                results.add(pool.submit(() -> markCommit(id)));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void markCommit(String id) {
+        Commit cmt = Commit.read(id);
+        if (cmt.hasTree()) {
+            markTree(cmt.getTree());
+        } else {
+            blobs.addAll(cmt.getBlobs().values());
+        }
+    }
+
+    private void markTree(String treeId) {
+        if (!trees.add(treeId)) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : Tree.read(treeId).entrySet()) {
+            if (entry.getKey().endsWith("/")) {
+                markTree(entry.getValue());
+            } else {
+                blobs.add(entry.getValue());
+            }
+        }
+    }
+
+    /** Removes the unmarked objects in files last modified before CUTOFF,
+     *  in milliseconds. */
+    void sweep(long cutoff) {
+        int before = removed;
+        sweepLoose(Commit.COMMITS_DIR, commits, cutoff);
+        int removedCommits = removed - before;
+        sweepLoose(Tree.TREES_DIR, trees, cutoff);
+        sweepLoose(Blob.BLOB_DIR, blobs, cutoff);
+        removedCommits += sweepPacks(cutoff);
+        if (removedCommits > 0) {
+            CommitGraph.open().rebuild();
+            CommitLog.open().rebuild();
+        }
+    }
+
+    /** Returns the number of objects removed. */
+    int removed() {
+        return removed;
+    }
+
+    /** Returns the number of bytes the removed objects took. */
+    long reclaimed() {
+        return reclaimed;
+    }
+
+    /** Deletes the files in DIR not named in MARKED and last modified
+     *  before CUTOFF. */
+    private void sweepLoose(File dir, Set<String> marked, long cutoff) {
+        List<String> names = Utils.plainFilenamesIn(dir);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File file = Utils.join(dir, name);
+            if (!marked.contains(name) && file.lastModified() < cutoff) {
+                long length = file.length();
+                if (file.delete()) {
+                    removed += 1;
+                    reclaimed += length;
+                }
+            }
+        }
+    }
+
+    /** Replaces the packs older than CUTOFF that hold unmarked objects by
+     *  a new pack of their marked objects. Returns the number of
+     *  commits removed. */
+    private int sweepPacks(long cutoff) {
+        byte[] types = {Pack.COMMIT, Pack.TREE, Pack.BLOB};
+        List<Set<String>> marks = List.of(commits, trees, blobs);
+        List<Pack> stale = new ArrayList<>();
+        // the marked objects of the stale packs, and their types
+        List<String> keepIds = new ArrayList<>();
+        List<Byte> keepTypes = new ArrayList<>();
+        int dropped = 0;
+        int droppedCommits = 0;
+        for (Pack p : Pack.all()) {
+            if (p.file().lastModified() >= cutoff) {
+                continue;
+            }
+            List<String> keep = new ArrayList<>();
+            List<Byte> keepType = new ArrayList<>();
+            int drop = 0;
+            int dropCommits = 0;
+            for (int t = 0; t < types.length; t += 1) {
+                for (String id : p.ids(types[t])) {
+                    if (marks.get(t).contains(id)) {
+                        keep.add(id);
+                        keepType.add(types[t]);
+                    } else {
+                        drop += 1;
+                        dropCommits += types[t] == Pack.COMMIT ? 1 : 0;
+                    }
+                }
+            }
+            if (drop > 0) {
+                stale.add(p);
+                keepIds.addAll(keep);
+                keepTypes.addAll(keepType);
+                dropped += drop;
+                droppedCommits += dropCommits;
+            }
+        }
+        if (stale.isEmpty()) {
+            return 0;
+        }
+        long newLength = 0;
+        if (!keepIds.isEmpty()) {
+            Pack.Writer writer = new Pack.Writer(Pack.PACKS_DIR);
+            for (int i = 0; i < keepIds.size(); i += 1) {
+                String id = keepIds.get(i);
+                if (!writer.contains(id)) {
+                    writer.add(id, keepTypes.get(i), Pack.find(id));
+                }
+            }
+            for (File packFile : writer.finish()) {
+                Transaction.wrote(packFile);
+                newLength += packFile.length() + idxOf(packFile).length();
+            }
+        }
+        long oldLength = 0;
+        for (Pack p : stale) {
+            oldLength += p.file().length() + idxOf(p.file()).length();
+            p.delete();
+        }
+        Pack.reload();
+        removed += dropped;
+        reclaimed += Math.max(0, oldLength - newLength);
+        return droppedCommits;
+    }
+
+    /** Returns the index file of PACKFILE. */
+    private static File idxOf(File packFile) {
+        String name = packFile.getName();
+        return new File(packFile.getParentFile(),
+                        name.substring(0, name.length() - ".pack".length()) + ".idx");
+    }
+}
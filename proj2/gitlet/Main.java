@@ -1,5 +1,7 @@
 package gitlet;
 
+import java.util.Arrays;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  Thanks CuiYuxin
  *  @author luohuang
@@ -10,20 +12,68 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        if (Server.SOCKET_FILE.exists()) {
+            // a server owns this repository: let it run the command
+            int status = Client.forward(args);
+            if (status >= 0) {
+                System.exit(status);
+            }
+        }
+        run(args);
+    }
+
+    /** Runs the command ARGS, printing the message of any error that ends
+     *  it. Used for every command, whether run directly or by a Server. */
+    static void run(String[] args) {
+        boolean stats = args.length > 0 && args[0].equals("--stats");
+        if (stats) {
+            // `--stats COMMAND ...` reports the object cache counters
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        // a Server runs many commands in one JVM: read the settings afresh
+        Config.reset();
+        Remote.reset();
+        // every write of the command takes effect together, even when it
+        // ends in an error, as the fast-forward of merge does
+        Transaction.begin();
+        String error = null;
+        try {
+            try {
+                dispatch(args);
+            } catch (GitletException excp) {
+                error = excp.getMessage();
+            }
+            Transaction.commit();
+        } catch (GitletException excp) {
+            // another command wrote what this one read: nothing was written
+            error = excp.getMessage();
+        } catch (RuntimeException excp) {
+            Transaction.abort();
+            throw excp;
+        } finally {
+            if (stats) {
+                System.err.println(ObjectCache.stats());
+            }
+        }
+        if (error != null) {
+            System.out.println(error);
+        }
+    }
+
+    private static void dispatch(String[] args) {
         //  what if args is empty?
         emptyWarning(args);
         String firstArg = args[0];
         Repository repo = new Repository();
         switch(firstArg) {
             case "init":
-                //  handle the `init` command
-                validateNumArgs(args, 1);
-                repo.init();
+                //  handle the `init [--object-format=NAME]` command
+                initCommand(args, repo);
                 break;
             case "add":
-                //  handle the `add [filename]` command
-                validateNumArgs(args, 2);
-                repo.add(args[1]);
+                //  handle the `add [filename]...` command
+                validateNumArgs(args, Math.max(args.length, 2));
+                repo.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
                 //  handle the `commit [message]` command
@@ -44,7 +94,13 @@ public class Main {
                 repo.globalLog();
                 break;
             case "find":
-                // handle the `find [commit message]` command
+                // handle the `find [commit message]` and
+                // `find --contains [text]` commands
+                if (args.length == 3 && args[1].equals("--contains")) {
+                    validateNumArgs(args, 3);
+                    repo.findContaining(args[2]);
+                    break;
+                }
                 validateNumArgs(args, 2);
                 repo.find(args[1]);
                 break;
@@ -83,17 +139,128 @@ public class Main {
                 validateNumArgs(args, 2);
                 repo.merge(args[1]);
                 break;
-//            case "add-remote":
-//                
-//                validateNumArgs(args, 3);
-//                Repository
-
-
+            case "diff":
+                // handle the `diff [commit id] [commit id]` command
+                if (args.length > 3) {
+                    validateNumArgs(args, 3);
+                }
+                validateNumArgs(args, args.length);
+                repo.diff(args.length > 1 ? args[1] : null, args.length > 2 ? args[2] : null);
+                break;
+            case "repack":
+                validateNumArgs(args, 1);
+                repo.repack();
+                break;
+            case "gc":
+                // handle the `gc` and `gc --grace [seconds]` commands
+                if (args.length == 3 && args[1].equals("--grace")) {
+                    validateNumArgs(args, 3);
+                    long grace = -1;
+                    try {
+                        grace = Long.parseLong(args[2]);
+                    } catch (NumberFormatException excp) {
+                        Utils.errorPrint("Incorrect operands.");
+                    }
+                    if (grace < 0) {
+                        Utils.errorPrint("Incorrect operands.");
+                    }
+                    repo.gc(grace);
+                    break;
+                }
+                validateNumArgs(args, 1);
+                repo.gc(GarbageCollector.gracePeriod());
+                break;
+            case "migrate":
+                validateNumArgs(args, 1);
+                repo.migrate();
+                break;
+            case "serve":
+                // handle the `serve` and `serve --stop` commands
+                if (args.length == 2 && args[1].equals("--stop")) {
+                    validateNumArgs(args, 2);
+                    Utils.errorPrint("No server is running.");
+                }
+                validateNumArgs(args, 1);
+                Server.serve();
+                break;
+            case "config":
+                // handle the `config [key] [value]` command
+                validateNumArgs(args, 3);
+                Config.setByUser(args[1], args[2]);
+                break;
+            case "add-remote":
+                // handle the `add-remote [remote name] [remote .gitlet directory]` command
+                validateNumArgs(args, 3);
+                repo.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                validateNumArgs(args, 2);
+                repo.removeRemote(args[1]);
+                break;
+            case "fetch":
+                validateNumArgs(args, 3);
+                repo.fetch(args[1], args[2]);
+                break;
+            case "push":
+                validateNumArgs(args, 3);
+                repo.push(args[1], args[2]);
+                break;
+            case "pull":
+                validateNumArgs(args, 3);
+                repo.pull(args[1], args[2]);
+                break;
+            case "clone":
+                // handle the `clone [--depth N] [--filter=blob:none]
+                // [remote .gitlet directory]` command
+                cloneCommand(args, repo);
+                break;
             default:
                 inExistence(); // instruct nonexistence
         }
     }
 
+    /** Parses the option of the init command ARGS and runs it on REPO. */
+    private static void initCommand(String[] args, Repository repo) {
+        ObjectFormat format = ObjectFormat.SHA1;
+        if (args.length == 2 && args[1].startsWith("--object-format=")) {
+            format = ObjectFormat.named(args[1].substring("--object-format=".length()));
+            if (format == null) {
+                Utils.errorPrint("Unknown object format.");
+            }
+            validateNumArgs(args, 2);
+        } else {
+            validateNumArgs(args, 1);
+        }
+        repo.init(format);
+    }
+
+    /** Parses the options of the clone command ARGS and runs it on REPO. */
+    private static void cloneCommand(String[] args, Repository repo) {
+        int depth = 0;
+        boolean blobs = true;
+        int i = 1;
+        while (i < args.length - 1) {
+            if (args[i].equals("--depth")) {
+                try {
+                    depth = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException excp) {
+                    depth = 0;
+                }
+                if (depth < 1) {
+                    Utils.errorPrint("Incorrect operands.");
+                }
+                i += 2;
+            } else if (args[i].equals("--filter=blob:none")) {
+                blobs = false;
+                i += 1;
+            } else {
+                break;
+            }
+        }
+        validateNumArgs(args, i + 1);
+        repo.cloneFrom(args[i], depth, blobs);
+    }
+
     public static void emptyWarning(String[] args) {
         if(args.length == 0) { //
             Utils.errorPrint("Please enter a command.");
@@ -101,9 +268,14 @@ public class Main {
     }
 
     public static void validateNumArgs(String[] args, int index) {
-        if (!args[0].equals("init") && !Repository.isRepo()) {
+        boolean creates = args[0].equals("init") || args[0].equals("clone");
+        if (!creates && !Repository.isRepo()) {
             Utils.errorPrint("Not in an initialized Gitlet directory.");
         }
+        if (!creates && !args[0].equals("migrate")
+            && Config.formatVersion() < Config.CURRENT_FORMAT) {
+            Utils.errorPrint("This repository uses an old object format; run 'migrate' first.");
+        }
         if (args[0].equals("checkout")) {
             if (args.length == 2) {
                 return;
@@ -0,0 +1,147 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** Finds the latest common ancestor (split point) of two commits over
+ *  the commit graph, following both parents of merge commits.
+ *
+ *  Both tips are walked at once from a queue ordered by generation
+ *  number, painting each commit with the side(s) it is reachable from.
+ *  A commit painted from both sides is a candidate, and everything below
+ *  it is marked stale. The walk stops once only stale commits are left,
+ *  so the cost depends on how far the tips have diverged rather than on
+ *  the length of the history.
+ */
+class MergeBase {
+
+    private static final int SIDE1 = 1;
+    private static final int SIDE2 = 2;
+    private static final int STALE = 4;
+    private static final int RESULT = 8;
+
+    /** Returns the position of a latest common ancestor of the commits
+     *  at positions A and B in GRAPH, or CommitGraph.NONE if they share
+     *  no history. When there are several (criss-cross merges), the one
+     *  with the highest generation is returned. */
+    static int find(CommitGraph graph, int a, int b) {
+        if (a == CommitGraph.NONE || b == CommitGraph.NONE) {
+            return CommitGraph.NONE;
+        }
+        if (a == b) {
+            return a;
+        }
+        List<Integer> candidates = paintDownToCommon(graph, a, b);
+        int best = CommitGraph.NONE;
+        for (int c : candidates) {
+            boolean redundant = false;
+            for (int other : candidates) {
+                if (other != c && isAncestor(graph, c, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant && (best == CommitGraph.NONE
+                               || graph.generation(c) > graph.generation(best))) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /** Returns the commits reachable from both A and B that are not
+     *  reachable from another such commit found earlier, in the order
+     *  they were found. */
+    private static List<Integer> paintDownToCommon(CommitGraph graph, int a, int b) {
+        Map<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(byGeneration(graph));
+        List<Integer> result = new ArrayList<>();
+
+        flags.put(a, SIDE1);
+        flags.put(b, SIDE2);
+        queue.add(a);
+        queue.add(b);
+        int active = 2;  // queued commits that are not stale
+
+        while (active > 0) {
+            int pos = queue.poll();
+            int f = flags.get(pos);
+            if ((f & STALE) == 0) {
+                active -= 1;
+            }
+            int sides = f & (SIDE1 | SIDE2);
+            if (sides == (SIDE1 | SIDE2)) {
+                if ((f & (RESULT | STALE)) == 0) {
+                    flags.put(pos, f | RESULT);
+                    result.add(pos);
+                }
+                sides |= STALE;
+            } else {
+                sides |= f & STALE;
+            }
+            for (int parent : new int[] {graph.parent1(pos), graph.parent2(pos)}) {
+                if (parent == CommitGraph.NONE) {
+                    continue;
+                }
+                int pf = flags.getOrDefault(parent, 0);
+                if ((pf & sides) == sides) {
+                    continue;
+                }
+                boolean wasQueued = pf != 0;
+                boolean wasActive = wasQueued && (pf & STALE) == 0;
+                pf |= sides;
+                flags.put(parent, pf);
+                if (!wasQueued) {
+                    queue.add(parent);
+                    if ((pf & STALE) == 0) {
+                        active += 1;
+                    }
+                } else if (wasActive && (pf & STALE) != 0) {
+                    active -= 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff the commit at ANCESTOR is reachable from the
+     *  commit at POS. Commits with a lower generation than ANCESTOR
+     *  cannot reach it and are not expanded. */
+    static boolean isAncestor(CommitGraph graph, int ancestor, int pos) {
+        int minGen = graph.generation(ancestor);
+        Set<Integer> seen = new HashSet<>();
+        Deque<Integer> work = new ArrayDeque<>();
+        work.push(pos);
+        while (!work.isEmpty()) {
+            int p = work.pop();
+            if (p == ancestor) {
+                return true;
+            }
+            if (!seen.add(p) || graph.generation(p) <= minGen) {
+                continue;
+            }
+            for (int parent : new int[] {graph.parent1(p), graph.parent2(p)}) {
+                if (parent != CommitGraph.NONE) {
+                    work.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Orders positions by decreasing generation, newest first. */
+    private static Comparator<Integer> byGeneration(CommitGraph graph) {
+        return (x, y) -> {
+            int cmp = Integer.compare(graph.generation(y), graph.generation(x));
+            return cmp != 0 ? cmp : Integer.compare(y, x);
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+/** The decisions of a three-way merge, made in one pass over the paths
+ *  changed since the split point on either side.
+ *
+ *  Each path gets one Step, with its blob id at the split point, in HEAD
+ *  and in the other commit (null where it is missing) and an Action:
+ *
+ *      KEEP         HEAD's version stands: the other side did not change
+ *                   the path, or both made the same change.
+ *      TAKE_THEIRS  only the other side changed the path; write its blob.
+ *      DELETE       only the other side changed the path, by removing it.
+ *      CONFLICT     both sides changed the path, differently.
+ *
+ *  Paths unchanged on both sides are never looked at: the tree diffs
+ *  skip every subtree whose id is the same as at the split point.
+ */
+class MergePlan {
+
+    enum Action { KEEP, TAKE_THEIRS, DELETE, CONFLICT }
+
+    /** The decision for one path. */
+    static final class Step {
+        final String path;
+        final Action action;
+        /** Blob ids at the split point, in HEAD and in the other commit,
+         *  null where the path is missing. */
+        final String split;
+        final String head;
+        final String other;
+
+        Step(String path, Action action, String split, String head, String other) {
+            this.path = path;
+            this.action = action;
+            this.split = split;
+            this.head = head;
+            this.other = other;
+        }
+    }
+
+    private final List<Step> steps;
+
+    private MergePlan(List<Step> steps) {
+        this.steps = steps;
+    }
+
+    /** Returns the plan for merging commit OTHER into commit HEAD, whose
+     *  split point is commit SPLIT. */
+    static MergePlan plan(Commit split, Commit head, Commit other) {
+        SortedMap<String, String[]> headChanges = Commit.diff(split, head);
+        SortedMap<String, String[]> otherChanges = Commit.diff(split, other);
+        TreeSet<String> paths = new TreeSet<>(headChanges.keySet());
+        paths.addAll(otherChanges.keySet());
+        List<Step> steps = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            String[] h = headChanges.get(path);
+            String[] o = otherChanges.get(path);
+            String base = h != null ? h[0] : o[0];
+            String ours = h != null ? h[1] : base;
+            String theirs = o != null ? o[1] : base;
+            steps.add(new Step(path, decide(base, ours, theirs), base, ours, theirs));
+        }
+        return new MergePlan(steps);
+    }
+
+    /** Returns the steps, in path order. */
+    List<Step> steps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /** Returns the action for a path whose blob ids at the split point,
+     *  in HEAD and in the other commit are BASE, OURS and THEIRS. */
+    private static Action decide(String base, String ours, String theirs) {
+        if (Objects.equals(ours, theirs) || Objects.equals(base, theirs)) {
+            return Action.KEEP;
+        }
+        if (Objects.equals(base, ours)) {
+            return theirs == null ? Action.DELETE : Action.TAKE_THEIRS;
+        }
+        return Action.CONFLICT;
+    }
+}
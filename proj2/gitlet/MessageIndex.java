@@ -0,0 +1,210 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/** An inverted index from commit messages, and from the words in them,
+ *  to the records of a CommitLog.
+ *
+ *  The file starts with the magic "MIDX", a version, COVERED, the log
+ *  offset up to which records are indexed, and the number of entries.
+ *  Each entry is (8 byte key hash, 8 byte log offset), and entries are
+ *  sorted by hash and then offset. A record has one entry for its whole
+ *  message and one for each distinct word of it, where a word is a
+ *  maximal run of letters and digits, lower-cased. Keys are hashed with
+ *  64-bit FNV-1a; callers check the message of every record found, so a
+ *  collision only costs a wasted read.
+ *
+ *  Records appended after COVERED are scanned by CommitLog itself; the
+ *  index is rewritten once they pass TAIL_LIMIT bytes.
+ */
+class MessageIndex {
+
+    /** Largest unindexed part of the log tolerated, in bytes. */
+    static final long TAIL_LIMIT = 64 * 1024;
+
+    /** File magic, "MIDX". */
+    private static final int MAGIC = 0x4d494458;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int ENTRY_SIZE = 16;
+
+    /** The file backing this index. */
+    private final File file;
+    /** Log offset up to which records are indexed. */
+    private long covered;
+    /** Number of entries. */
+    private int count;
+    /** The sorted entries. */
+    private MappedByteBuffer table;
+
+    MessageIndex(File file) {
+        this.file = file;
+        load();
+    }
+
+    /** Returns the log offset up to which records are indexed, or 0 if
+     *  there is no index. */
+    long covered() {
+        return covered;
+    }
+
+    /** Returns the key of a whole MESSAGE. */
+    static String messageKey(String message) {
+        return "m" + message;
+    }
+
+    /** Returns the key of WORD. */
+    static String wordKey(String word) {
+        return "w" + word.toLowerCase(Locale.ROOT);
+    }
+
+    /** Returns the words of TEXT that are whole words of any message
+     *  containing TEXT: those with a non-word character on both sides
+     *  within TEXT. */
+    static List<String> innerWords(String text) {
+        List<String> result = new ArrayList<>();
+        for (int[] span : wordSpans(text)) {
+            if (span[0] > 0 && span[1] < text.length()) {
+                result.add(text.substring(span[0], span[1]));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the log offsets indexed under KEY, in increasing order. */
+    long[] lookup(String key) {
+        long hash = hash(key);
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (table.getLong(mid * ENTRY_SIZE) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int n = 0;
+        while (lo + n < count && table.getLong((lo + n) * ENTRY_SIZE) == hash) {
+            n += 1;
+        }
+        long[] result = new long[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = table.getLong((lo + i) * ENTRY_SIZE + 8);
+        }
+        return result;
+    }
+
+    /** Rewrites this index to cover every record of LOG. */
+    void rebuild(CommitLog log) {
+        List<long[]> entries = new ArrayList<>();
+        log.forEach(e -> {
+            entries.add(new long[] {hash(messageKey(e.message)), e.offset});
+            Set<String> words = new HashSet<>();
+            for (int[] span : wordSpans(e.message)) {
+                String key = wordKey(e.message.substring(span[0], span[1]));
+                if (words.add(key)) {
+                    entries.add(new long[] {hash(key), e.offset});
+                }
+            }
+        });
+        entries.sort((x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0])
+                                            : Long.compare(x[1], y[1]));
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + entries.size() * ENTRY_SIZE);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(log.end()).putInt(entries.size());
+        for (long[] entry : entries) {
+            buf.putLong(entry[0]).putLong(entry[1]);
+        }
+        buf.flip();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.getChannel().write(buf);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        load();
+    }
+
+    /** Removes the index file, for when the log itself is rebuilt. */
+    void delete() {
+        file.delete();
+        covered = 0;
+        count = 0;
+        table = null;
+    }
+
+    /** Maps the index file, treating a missing or foreign file as empty. */
+    private void load() {
+        covered = 0;
+        count = 0;
+        table = null;
+        if (file.length() < HEADER_SIZE) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                return;
+            }
+            long cov = raf.readLong();
+            int n = raf.readInt();
+            if (raf.length() < HEADER_SIZE + (long) n * ENTRY_SIZE) {
+                return;
+            }
+            table = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                                         (long) n * ENTRY_SIZE);
+            count = n;
+            covered = cov;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the {start, end} of each word of TEXT. */
+    private static List<int[]> wordSpans(String text) {
+        List<int[]> spans = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i += 1;
+                continue;
+            }
+            int start = i;
+            while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                i += 1;
+            }
+            spans.add(new int[] {start, i});
+        }
+        return spans;
+    }
+
+    /** Returns the 64-bit FNV-1a hash of the UTF-8 bytes of KEY. */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
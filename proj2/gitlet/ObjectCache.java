@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** An in-process cache of objects read during one command.
+ *
+ *  Blob and tree contents are kept in an LRU map bounded by their total
+ *  size, MAX_BYTES; an object larger than a quarter of that is never
+ *  kept. Commits are small and read over and over (every staging call
+ *  used to read HEAD again), so they are kept as long as anything else
+ *  holds them, through weak references, without a bound. Objects are
+ *  immutable and named by their hash, so neither map is ever invalidated.
+ *  Callers must not modify the arrays or commits they get.
+ *
+ *  Hits and misses are counted; "gitlet --stats COMMAND" prints them.
+ */
+class ObjectCache {
+
+    /** Largest total size of cached blob and tree contents, in bytes. */
+    static final long MAX_BYTES = 32L << 20;
+
+    /** Weak reference to a commit, remembering its id for cleanup. */
+    private static final class CommitRef extends WeakReference<Commit> {
+        final String id;
+
+        CommitRef(String id, Commit cmt, ReferenceQueue<Commit> queue) {
+            super(cmt, queue);
+            this.id = id;
+        }
+    }
+
+    private static final LinkedHashMap<String, byte[]> CONTENTS =
+        new LinkedHashMap<>(64, 0.75f, true);
+    private static long bytes;
+    private static final Map<String, CommitRef> COMMITS = new HashMap<>();
+    private static final ReferenceQueue<Commit> CLEARED = new ReferenceQueue<>();
+
+    private static long contentHits;
+    private static long contentMisses;
+    private static long commitHits;
+    private static long commitMisses;
+
+    /** Returns the cached content of object ID, or null. */
+    static synchronized byte[] content(String id) {
+        byte[] content = CONTENTS.get(id);
+        if (content == null) {
+            contentMisses += 1;
+        } else {
+            contentHits += 1;
+        }
+        return content;
+    }
+
+    /** Caches CONTENT as that of object ID, evicting the least recently
+     *  used contents while the total is over MAX_BYTES. */
+    static synchronized void putContent(String id, byte[] content) {
+        if (content.length > MAX_BYTES / 4) {
+            return;
+        }
+        byte[] old = CONTENTS.put(id, content);
+        bytes += content.length - (old == null ? 0 : old.length);
+        Iterator<byte[]> it = CONTENTS.values().iterator();
+        while (bytes > MAX_BYTES && it.hasNext()) {
+            bytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    /** Returns the cached commit ID, or null. */
+    static synchronized Commit commit(String id) {
+        expunge();
+        CommitRef ref = COMMITS.get(id);
+        Commit cmt = ref == null ? null : ref.get();
+        if (cmt == null) {
+            commitMisses += 1;
+        } else {
+            commitHits += 1;
+        }
+        return cmt;
+    }
+
+    /** Caches CMT as commit ID. */
+    static synchronized void putCommit(String id, Commit cmt) {
+        expunge();
+        COMMITS.put(id, new CommitRef(id, cmt, CLEARED));
+    }
+
+    /** Returns a one-line summary of the counters. */
+    static synchronized String stats() {
+        expunge();
+        return String.format("object cache: commits %d hits, %d misses, %d cached; "
+                             + "blobs and trees %d hits, %d misses, %d cached (%d bytes)",
+                             commitHits, commitMisses, COMMITS.size(),
+                             contentHits, contentMisses, CONTENTS.size(), bytes);
+    }
+
+    /** Drops the entries of commits that have been collected. */
+    private static void expunge() {
+        Reference<? extends Commit> ref;
+        while ((ref = CLEARED.poll()) != null) {
+            CommitRef cref = (CommitRef) ref;
+            if (COMMITS.get(cref.id) == cref) {
+                COMMITS.remove(cref.id);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/** The hash function that names the objects of a repository.
+ *
+ *  It is chosen by init and recorded in .gitlet/config as
+ *  extensions.objectformat, as in git; repositories without the key use
+ *  SHA-1. Every id of a repository has the width of its format: object
+ *  ids in trees, the commit graph and its index, the commit log, pack
+ *  indexes and .gitlet/index are all rawLength() bytes, and ids in
+ *  commits, branches and the staging area hexLength() digits. The format
+ *  therefore cannot change after init, and two repositories of different
+ *  formats cannot exchange objects.
+ */
+enum ObjectFormat {
+    SHA1("sha1", "SHA-1", 20),
+    SHA256("sha256", "SHA-256", 32);
+
+    /** Config key naming the format. */
+    static final String CONFIG_KEY = "extensions.objectformat";
+
+    /** The format of the current repository, read on first use. */
+    private static ObjectFormat current;
+
+    /** Name used in the config and by init --object-format. */
+    final String formatName;
+    /** Name of the MessageDigest algorithm. */
+    final String algorithm;
+    private final int rawLength;
+
+    ObjectFormat(String formatName, String algorithm, int rawLength) {
+        this.formatName = formatName;
+        this.algorithm = algorithm;
+        this.rawLength = rawLength;
+    }
+
+    /** Returns the length of an id in bytes. */
+    int rawLength() {
+        return rawLength;
+    }
+
+    /** Returns the length of an id as a hexadecimal numeral. */
+    int hexLength() {
+        return 2 * rawLength;
+    }
+
+    /** Returns a new digest computing ids of this format. */
+    MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support " + algorithm);
+        }
+    }
+
+    /** Returns the format of the current repository. */
+    static ObjectFormat current() {
+        if (current == null) {
+            String name = Config.get(CONFIG_KEY, SHA1.formatName);
+            current = named(name);
+            if (current == null) {
+                throw Utils.error("Unknown object format %s.", name);
+            }
+        }
+        return current;
+    }
+
+    /** Makes FORMAT that of the current repository, which init is
+     *  creating. */
+    static void use(ObjectFormat format) {
+        Config.set(CONFIG_KEY, format.formatName);
+        current = format;
+    }
+
+    /** Returns the format called NAME, or null if there is none. */
+    static ObjectFormat named(String name) {
+        for (ObjectFormat format : values()) {
+            if (format.formatName.equals(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the format of the repository whose .gitlet directory is
+     *  DIR. */
+    static ObjectFormat of(File dir) {
+        Properties props = new Properties();
+        File config = Utils.join(dir, "config");
+        if (config.exists()) {
+            try (Reader in = new FileReader(config)) {
+                props.load(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        ObjectFormat format = named(props.getProperty(CONFIG_KEY, SHA1.formatName));
+        if (format == null) {
+            throw Utils.error("Unknown object format in %s.", config.getPath());
+        }
+        return format;
+    }
+}
@@ -0,0 +1,251 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** The objects, commit graph and branches of the repository whose
+ *  .gitlet directory is DIR.
+ *
+ *  Commands reach the current repository through the static paths of
+ *  Blob, Tree, Commit, Pack and Branch. An ObjectStore reaches any
+ *  repository on disk, which fetch and push need in order to read one
+ *  repository while writing the other. Objects are read loose or packed,
+ *  as in the current repository; commits are returned in their stored
+ *  (serialized) form, and blobs and trees as their content.
+ *
+ *  The file "shallow" lists, one id per line, the commits of a shallow
+ *  clone whose parents were left out.
+ */
+class ObjectStore {
+
+    /** The .gitlet directory. */
+    final File dir;
+    private final File commitsDir;
+    private final File blobsDir;
+    private final File treesDir;
+    private final File packsDir;
+    private final File shallowFile;
+    private List<Pack> packs;
+    private final RefStore refs;
+    /** The commit graph and log, or null if the repository has not built
+     *  them yet. */
+    private final CommitGraph graph;
+    private final CommitLog log;
+
+    /** The store of the repository in directory DIR, which must not be
+     *  the current one (see local()). */
+    ObjectStore(File dir) {
+        this(dir, null, null, null);
+    }
+
+    private ObjectStore(File dir, List<Pack> packs, CommitGraph graph, CommitLog log) {
+        this.dir = dir;
+        commitsDir = Utils.join(dir, "commits");
+        blobsDir = Utils.join(dir, "blobs");
+        treesDir = Utils.join(dir, "trees");
+        packsDir = Utils.join(dir, "packs");
+        shallowFile = Utils.join(dir, "shallow");
+        refs = dir.equals(Repository.GITLET_DIR) ? RefStore.local() : new RefStore(dir);
+        this.packs = packs == null ? Pack.in(packsDir) : packs;
+        if (graph == null) {
+            graph = new CommitGraph(Utils.join(dir, "commit-graph"));
+            graph = graph.hasValidHeader() ? graph : null;
+            log = new CommitLog(Utils.join(dir, "commit-log"));
+            log = log.hasValidHeader() ? log : null;
+        }
+        this.graph = graph;
+        this.log = log;
+    }
+
+    /** Returns the store of the current repository, sharing its open
+     *  packs, commit graph and log with the commands. */
+    static ObjectStore local() {
+        // the log first, as in Commit.write
+        CommitLog log = CommitLog.open();
+        return new ObjectStore(Repository.GITLET_DIR, Pack.all(), CommitGraph.open(), log);
+    }
+
+    /** Returns true iff this is the store of the current repository. */
+    boolean isLocal() {
+        return dir.equals(Repository.GITLET_DIR);
+    }
+
+    /** Returns true iff commit ID, and so all its history, is in this
+     *  repository. Asks the commit graph where there is one. */
+    boolean hasCommit(String id) {
+        if (graph != null) {
+            return graph.contains(id);
+        }
+        return has(Pack.COMMIT, id);
+    }
+
+    /** Returns true iff object ID of TYPE (COMMIT, BLOB or TREE) is
+     *  stored, loose or packed. */
+    boolean has(byte type, String id) {
+        if (Utils.join(looseDir(type), id).exists()) {
+            return true;
+        }
+        for (Pack p : packs) {
+            if (p.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns object ID of TYPE: the stored form of a commit, or the
+     *  content of a blob or tree. */
+    byte[] read(byte type, String id) {
+        File file = Utils.join(looseDir(type), id);
+        if (file.exists()) {
+            return type == Pack.COMMIT ? Utils.readContents(file) : Blob.readLoose(file);
+        }
+        for (Pack p : packs) {
+            byte[] content = p.read(id);
+            if (content != null) {
+                return content;
+            }
+        }
+        if (type == Pack.BLOB && isLocal()) {
+            // perhaps left out of a partial clone
+            return Blob.getBlobByte(id);
+        }
+        throw Utils.error("Missing object %s.", id);
+    }
+
+    /** Returns a Pack.Writer making a pack in this repository. */
+    Pack.Writer packWriter() {
+        return new Pack.Writer(packsDir);
+    }
+
+    /** Returns the ids of the commits whose parents are missing, which
+     *  is empty unless this is a shallow clone. */
+    Set<String> shallow() {
+        byte[] content = Transaction.read(shallowFile);
+        Set<String> ids = new TreeSet<>();
+        if (content != null) {
+            String text = new String(content, StandardCharsets.UTF_8);
+            ids.addAll(Arrays.asList(text.split("\n")));
+            ids.remove("");
+        }
+        return ids;
+    }
+
+    /** Completes the pack of WRITER, holding the commits CMTS (parents
+     *  first, with ids IDS), and adds those commits to the commit graph
+     *  and log. The commits SHALLOW among them are recorded as having
+     *  missing parents. A shallow commit whose parents arrive stops being
+     *  one, and the graph, which recorded it without them, is rebuilt.
+     *  All of it is synced before this returns, so a ref may be pointed
+     *  at the commits right after. */
+    void receive(Pack.Writer writer, List<String> ids, List<Commit> cmts,
+                 Collection<String> shallow) {
+        List<File> packFiles = writer.finish();
+        for (File packFile : packFiles) {
+            Transaction.wrote(packFile);
+        }
+        if (isLocal()) {
+            Pack.reload();
+            packs = Pack.all();
+        } else {
+            packs = Pack.in(packsDir);
+        }
+        Set<String> oldShallow = shallow();
+        Set<String> newShallow = new TreeSet<>(shallow);
+        boolean filled = false;
+        Set<String> received = new HashSet<>(ids);
+        for (String id : oldShallow) {
+            Commit cmt = Utils.deserialize(read(Pack.COMMIT, id), Commit.class);
+            boolean missing = false;
+            for (String parent : new String[] {cmt.getParent(), cmt.getSecondParent()}) {
+                if (received.contains(parent)) {
+                    filled = true;
+                } else if (!parent.isEmpty() && !has(Pack.COMMIT, parent)) {
+                    missing = true;
+                }
+            }
+            if (missing) {
+                newShallow.add(id);
+            }
+        }
+        try (Transaction.Lock lock = Transaction.lock(dir)) {
+            if (log != null) {
+                log.refresh();
+            }
+            if (graph != null) {
+                graph.refresh();
+            }
+            for (int i = 0; i < ids.size(); i += 1) {
+                Commit cmt = cmts.get(i);
+                if (graph != null && graph.contains(ids.get(i))) {
+                    continue; // received meanwhile by another process
+                }
+                if (log != null) {
+                    log.add(ids.get(i), cmt.getParent(), cmt.getSecondParent(),
+                            cmt.getTimestamp(), cmt.getMessage());
+                }
+                if (graph != null && !filled) {
+                    graph.add(ids.get(i), cmt.getParent(), cmt.getSecondParent(),
+                              cmt.getTimestamp(), shallow.contains(ids.get(i)));
+                }
+            }
+            if (graph != null && filled) {
+                // another repository builds its graph from its own commits
+                if (isLocal()) {
+                    graph.rebuild();
+                } else {
+                    graph.discard();
+                }
+            }
+        }
+        if (!newShallow.equals(oldShallow)) {
+            byte[] content = newShallow.isEmpty() ? new byte[0]
+                : (String.join("\n", newShallow) + "\n").getBytes(StandardCharsets.UTF_8);
+            if (isLocal()) {
+                Transaction.write(shallowFile, content);
+            } else {
+                Transaction.replace(shallowFile, content);
+            }
+        }
+        if (!isLocal()) {
+            // the transaction of this command only syncs before its own refs
+            Set<File> written = new LinkedHashSet<>();
+            written.addAll(packFiles);
+            if (graph != null) {
+                written.add(graph.file());
+            }
+            if (log != null) {
+                written.add(log.file());
+            }
+            Transaction.sync(written);
+        }
+    }
+
+    /** Returns the branches of this repository. */
+    RefStore refs() {
+        return refs;
+    }
+
+    /** Returns branch NAME, or null if there is no such branch. */
+    Branch branch(String name) {
+        return Branch.read(refs, name);
+    }
+
+    private File looseDir(byte type) {
+        switch (type) {
+            case Pack.COMMIT:
+                return commitsDir;
+            case Pack.TREE:
+                return treesDir;
+            default:
+                return blobsDir;
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A packfile: many objects stored in one file, with an index.
+ *
+ *  pack-NAME.pack holds the magic "GPAK", a version and the number of
+ *  entries, followed by the entries:
+ *
+ *      type     1 byte    COMMIT, BLOB, DELTA or TREE
+ *      base     8 bytes   offset of the base entry (DELTA only)
+ *      size     4 bytes   inflated length of the data
+ *      zsize    4 bytes   deflated length of the data
+ *      data     zsize     deflated object content, or a Delta against
+ *                         the content of the base entry
+ *
+ *  pack-NAME.idx holds the magic "GIDX", a version, the entry count, a
+ *  256 entry fan-out table and (raw id, 8 byte pack offset) pairs sorted
+ *  by id, ids having the width of the object format. Both files are
+ *  memory-mapped for reading.
+ */
+class Pack {
+
+    /** Directory holding the packfiles. */
+    static final File PACKS_DIR = Utils.join(Repository.GITLET_DIR, "packs");
+
+    static final byte COMMIT = 1;
+    static final byte BLOB = 2;
+    static final byte DELTA = 3;
+    static final byte TREE = 4;
+
+    private static final int PACK_MAGIC = 0x4750414b;
+    private static final int IDX_MAGIC = 0x47494458;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int FANOUT_SIZE = 256 * 4;
+
+    /** Packs of the current repository, loaded lazily, and the
+     *  modification time of PACKS_DIR when they were. */
+    private static List<Pack> packs;
+    private static long packsStamp;
+
+    /** The .pack file. */
+    private final File packFile;
+    /** The .idx file. */
+    private final File idxFile;
+    /** Number of objects in the pack. */
+    private final int count;
+    /** Width of an id and of an index entry in bytes. */
+    private final int idSize;
+    private final int entrySize;
+    private final MappedByteBuffer data;
+    /** Fan-out table followed by the sorted index entries. */
+    private final MappedByteBuffer index;
+
+    Pack(File packFile) {
+        this.packFile = packFile;
+        this.idSize = Utils.rawUidLength();
+        this.entrySize = idSize + 8;
+        String name = packFile.getName();
+        this.idxFile = new File(packFile.getParentFile(),
+                                name.substring(0, name.length() - ".pack".length()) + ".idx");
+        try (RandomAccessFile pack = new RandomAccessFile(packFile, "r");
+             RandomAccessFile idx = new RandomAccessFile(idxFile, "r")) {
+            if (pack.readInt() != PACK_MAGIC || pack.readInt() != VERSION
+                || idx.readInt() != IDX_MAGIC || idx.readInt() != VERSION) {
+                throw new IllegalArgumentException("not a gitlet pack: " + name);
+            }
+            count = idx.readInt();
+            data = pack.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, pack.length());
+            index = idx.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                                         FANOUT_SIZE + (long) count * entrySize);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the packs of the current repository. */
+    static synchronized List<Pack> all() {
+        if (packs == null) {
+            packsStamp = PACKS_DIR.lastModified();
+            packs = in(PACKS_DIR);
+        }
+        return packs;
+    }
+
+    /** Forgets the loaded packs if packs were added or removed since they
+     *  were loaded, as repack in another process does, and returns true
+     *  iff it did. */
+    private static synchronized boolean reloadIfChanged() {
+        if (packs == null || PACKS_DIR.lastModified() == packsStamp) {
+            return false;
+        }
+        packs = null;
+        return true;
+    }
+
+    /** Returns the packs in directory DIR. A pack whose index is not
+     *  written yet is still being made, and is left out. */
+    static List<Pack> in(File dir) {
+        List<Pack> result = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".pack"));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File f : files) {
+                String name = f.getName();
+                File idx = new File(dir, name.substring(0, name.length() - ".pack".length())
+                                         + ".idx");
+                if (!idx.exists()) {
+                    continue;
+                }
+                try {
+                    result.add(new Pack(f));
+                } catch (IllegalArgumentException excp) {
+                    if (f.exists()) {
+                        throw excp;
+                    } // deleted meanwhile by another process
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Forgets the loaded packs, after packs were added or removed. */
+    static synchronized void reload() {
+        packs = null;
+    }
+
+    /** Returns the content of object ID from the first pack holding it,
+     *  or null if no pack does. */
+    static byte[] find(String id) {
+        if (id.length() != Utils.uidLength()) {
+            return null;
+        }
+        byte[] raw = Utils.fromHex(id);
+        do {
+            for (Pack p : all()) {
+                long off = p.offset(raw);
+                if (off >= 0) {
+                    return p.readAt(off, 0);
+                }
+            }
+        } while (reloadIfChanged());
+        return null;
+    }
+
+    /** Returns true iff some pack holds object ID. */
+    static boolean has(String id) {
+        if (id.length() != Utils.uidLength()) {
+            return false;
+        }
+        byte[] raw = Utils.fromHex(id);
+        for (Pack p : all()) {
+            if (p.offset(raw) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the content of object ID, or null if this pack does not
+     *  hold it. */
+    byte[] read(String id) {
+        if (id.length() != Utils.uidLength()) {
+            return null;
+        }
+        long off = offset(Utils.fromHex(id));
+        return off < 0 ? null : readAt(off, 0);
+    }
+
+    /** Returns true iff this pack holds object ID. */
+    boolean contains(String id) {
+        return id.length() == Utils.uidLength() && offset(Utils.fromHex(id)) >= 0;
+    }
+
+    /** Returns the ids of the objects of TYPE (COMMIT, BLOB or TREE) in this
+     *  pack. Deltas count as blobs. */
+    List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        byte[] raw = new byte[idSize];
+        for (int i = 0; i < count; i += 1) {
+            int off = FANOUT_SIZE + i * entrySize;
+            byte t = data.get((int) index.getLong(off + idSize));
+            if (t == type || (type == BLOB && t == DELTA)) {
+                index.get(off, raw);
+                result.add(Utils.toHex(raw));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the .pack file of this pack. */
+    File file() {
+        return packFile;
+    }
+
+    /** Deletes the files of this pack. */
+    void delete() {
+        packFile.delete();
+        idxFile.delete();
+    }
+
+    /** Returns the pack offset of the object whose raw id is ID, or -1. */
+    private long offset(byte[] id) {
+        if (count == 0) {
+            return -1;
+        }
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt((first - 1) * 4);
+        int hi = index.getInt(first * 4);
+        byte[] probe = new byte[idSize];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int off = FANOUT_SIZE + mid * entrySize;
+            index.get(off, probe);
+            int cmp = Arrays.compareUnsigned(probe, id);
+            if (cmp == 0) {
+                return index.getLong(off + idSize);
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the content of the entry at OFF, resolving deltas. DEPTH
+     *  counts the deltas already followed. */
+    private byte[] readAt(long off, int depth) {
+        if (depth > Writer.MAX_DEPTH) {
+            throw new IllegalArgumentException("delta chain too long in " + packFile.getName());
+        }
+        int pos = (int) off;
+        byte type = data.get(pos);
+        pos += 1;
+        long base = -1;
+        if (type == DELTA) {
+            base = data.getLong(pos);
+            pos += 8;
+        }
+        int size = data.getInt(pos);
+        int zsize = data.getInt(pos + 4);
+        pos += 8;
+
+        byte[] content = new byte[size];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data.duplicate().position(pos).limit(pos + zsize));
+            int n = 0;
+            while (n < size && !inflater.finished()) {
+                n += inflater.inflate(content, n, size - n);
+            }
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException("corrupt entry in " + packFile.getName());
+        } finally {
+            inflater.end();
+        }
+        if (type == DELTA) {
+            return Delta.apply(readAt(base, depth + 1), content);
+        }
+        return content;
+    }
+
+    /** Builds new packs in temporary files. Objects are written in the
+     *  order they are added, and a delta's base must be added before it.
+     *
+     *  Packs are mapped whole and addressed with int positions, so a pack
+     *  is closed and a new one started before it would pass MAX_SIZE
+     *  bytes. A blob whose base went into an earlier pack is stored
+     *  whole. */
+    static class Writer {
+
+        /** Longest chain of deltas allowed. */
+        static final int MAX_DEPTH = 16;
+        /** Largest pack written. */
+        static final long MAX_SIZE = Integer.MAX_VALUE;
+
+        /** Directory the packs go into. */
+        private final File dir;
+        private final long maxSize;
+        /** Packs completed so far. */
+        private final List<File> done = new ArrayList<>();
+        /** The pack under construction. */
+        private File tmp;
+        private RandomAccessFile out;
+        private final List<byte[]> ids = new ArrayList<>();
+        private final List<Long> offsets = new ArrayList<>();
+        /** id -> offset of the entries written to this pack so far. */
+        private final Map<String, Long> offsetOf = new HashMap<>();
+        /** id -> delta depth of the blobs written to this pack so far. */
+        private final Map<String, Integer> depths = new HashMap<>();
+        /** Ids added to any of the packs. */
+        private final Set<String> added = new HashSet<>();
+        private int deltas;
+
+        Writer(File dir) {
+            this(dir, MAX_SIZE);
+        }
+
+        /** A Writer starting a new pack before one passes MAXSIZE bytes. */
+        Writer(File dir, long maxSize) {
+            this.dir = dir;
+            this.maxSize = maxSize;
+            dir.mkdir();
+            start();
+        }
+
+        /** Opens a new, empty pack. */
+        private void start() {
+            try {
+                tmp = File.createTempFile("pack", ".tmp", dir);
+                out = new RandomAccessFile(tmp, "rw");
+                out.setLength(0);
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Completes the current pack and starts another if an entry of
+         *  LENGTH bytes of content might not fit in it. */
+        private void makeRoom(int length) {
+            // deflate adds a few bytes per 16 KB block when it cannot
+            // compress; an entry header is at most 17 bytes
+            long bound = 17 + length + length / 1000 + 64;
+            try {
+                if (ids.isEmpty() || out.getFilePointer() + bound <= maxSize) {
+                    return;
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            done.add(complete());
+            ids.clear();
+            offsets.clear();
+            offsetOf.clear();
+            depths.clear();
+            start();
+        }
+
+        /** Adds object ID of TYPE with the given CONTENT. */
+        void add(String id, byte type, byte[] content) {
+            makeRoom(content.length);
+            write(id, type, -1, content);
+            depths.put(id, 0);
+        }
+
+        /** Adds blob ID with CONTENT, stored as a delta against the blob
+         *  BASEID with content BASE if that is much smaller. */
+        void addBlob(String id, byte[] content, String baseId, byte[] base) {
+            makeRoom(content.length);
+            Integer baseDepth = baseId == null ? null : depths.get(baseId);
+            if (baseDepth != null && baseDepth < MAX_DEPTH) {
+                byte[] delta = Delta.create(base, content);
+                if (delta.length < content.length / 2) {
+                    write(id, DELTA, offsetOf.get(baseId), delta);
+                    depths.put(id, baseDepth + 1);
+                    deltas += 1;
+                    return;
+                }
+            }
+            add(id, BLOB, content);
+        }
+
+        /** Returns true iff object ID has been added. */
+        boolean contains(String id) {
+            return added.contains(id);
+        }
+
+        /** Returns the number of objects added. */
+        int size() {
+            return added.size();
+        }
+
+        /** Returns the number of objects stored as deltas. */
+        int deltas() {
+            return deltas;
+        }
+
+        private void write(String id, byte type, long base, byte[] content) {
+            byte[] z = deflate(content);
+            try {
+                long off = out.getFilePointer();
+                out.writeByte(type);
+                if (type == DELTA) {
+                    out.writeLong(base);
+                }
+                out.writeInt(content.length);
+                out.writeInt(z.length);
+                out.write(z);
+                ids.add(Utils.fromHex(id));
+                offsets.add(off);
+                offsetOf.put(id, off);
+                added.add(id);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Completes the packs, writes their indexes and returns the pack
+         *  files, usually one. */
+        List<File> finish() {
+            done.add(complete());
+            return done;
+        }
+
+        /** Completes the current pack, writes its index and returns the
+         *  pack file. Both only appear under their final names once
+         *  complete, the index last. */
+        private File complete() {
+            int n = ids.size();
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i += 1) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (x, y) -> Arrays.compareUnsigned(ids.get(x), ids.get(y)));
+            int entrySize = Utils.rawUidLength() + 8;
+            ByteBuffer idx = ByteBuffer.allocate(HEADER_SIZE + FANOUT_SIZE + n * entrySize);
+            idx.putInt(IDX_MAGIC).putInt(VERSION).putInt(n);
+            int[] fanout = new int[256];
+            for (byte[] id : ids) {
+                fanout[id[0] & 0xff] += 1;
+            }
+            int total = 0;
+            for (int i = 0; i < 256; i += 1) {
+                total += fanout[i];
+                idx.putInt(total);
+            }
+            List<Object> sortedIds = new ArrayList<>();
+            for (int i : order) {
+                idx.put(ids.get(i)).putLong(offsets.get(i));
+                sortedIds.add(ids.get(i));
+            }
+            String name = "pack-" + Utils.hash(sortedIds);
+            File packFile = Utils.join(dir, name + ".pack");
+            File idxFile = Utils.join(dir, name + ".idx");
+            try {
+                out.seek(8);
+                out.writeInt(n);
+                out.getChannel().force(true);
+                out.close();
+                rename(tmp, packFile);
+                File idxTmp = File.createTempFile("idx", ".tmp", dir);
+                try (RandomAccessFile raf = new RandomAccessFile(idxTmp, "rw")) {
+                    raf.setLength(0);
+                    raf.write(idx.array());
+                    raf.getChannel().force(true);
+                }
+                rename(idxTmp, idxFile);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return packFile;
+        }
+
+        private static byte[] deflate(byte[] content) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream z = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                z.write(buf, 0, n);
+            }
+            deflater.end();
+            return z.toByteArray();
+        }
+
+        private static void rename(File from, File to) throws IOException {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** The branches of a repository, kept as loose refs and a packed-refs
+ *  file, as in git.
+ *
+ *  The loose ref .gitlet/branches/NAME holds the raw id of the commit
+ *  branch NAME points at. Branches fetched from a remote are named
+ *  REMOTE/BRANCH, so theirs are in a subdirectory. .gitlet/packed-refs
+ *  holds the magic "PREF", a version and the number of refs, COUNT, then
+ *  COUNT int offsets of the records in order of name, and then the
+ *  records: a 2 byte name length, the name in UTF-8 and the raw id. A
+ *  loose ref overrides a packed one of the same name.
+ *
+ *  Reading, creating, moving or deleting a branch touches its loose ref
+ *  and binary-searches packed-refs, and never lists the directory. New
+ *  branches are loose. The file loose-refs gains a byte for each loose
+ *  ref written since the last pack, so it counts them without a listing;
+ *  once it passes LOOSE_LIMIT they are all folded into packed-refs.
+ *  Listing the branches therefore reads packed-refs and walks a
+ *  directory of at most LOOSE_LIMIT files.
+ *
+ *  Every change is a compare-and-swap: it names the id the caller read
+ *  the ref at, and fails if the ref has moved since. The Transaction
+ *  checks again, holding the lock of the repository, that neither the
+ *  loose ref nor packed-refs changed before it writes them.
+ *
+ *  The refs of the current repository are read and written through the
+ *  command's Transaction. Those of another repository, which push moves,
+ *  are replaced at once. Older repositories stored each branch as a
+ *  serialized Branch; such loose refs are still read, and rewritten in
+ *  the new form when they next move.
+ */
+class RefStore {
+
+    /** Most loose refs kept before they are packed. */
+    static final int LOOSE_LIMIT = 64;
+
+    /** File magic, "PREF". */
+    private static final int MAGIC = 0x50524546;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    /** Refs of the current repository, opened lazily. */
+    private static RefStore current;
+
+    /** Directory of the loose refs. */
+    private final File looseDir;
+    private final File packedFile;
+    /** One byte for each loose ref written since the last pack. */
+    private final File countFile;
+    /** True iff this is the current repository, whose ref writes the
+     *  Transaction holds. */
+    private final boolean local;
+    /** Content of packed-refs, or null if there is none, and the file
+     *  key, size and modification time it was read at. */
+    private byte[] packed;
+    private List<Object> packedStamp;
+
+    /** The refs of the repository whose .gitlet directory is DIR. */
+    RefStore(File dir) {
+        looseDir = Utils.join(dir, "branches");
+        packedFile = Utils.join(dir, "packed-refs");
+        countFile = Utils.join(dir, "loose-refs");
+        local = dir.equals(Repository.GITLET_DIR);
+    }
+
+    /** Returns the refs of the current repository. */
+    static RefStore local() {
+        if (current == null) {
+            current = new RefStore(Repository.GITLET_DIR);
+        }
+        return current;
+    }
+
+    /** Returns the id branch NAME points at, or null if there is no such
+     *  branch. */
+    String get(String name) {
+        byte[] loose = read(looseFile(name));
+        if (loose != null) {
+            return decode(loose);
+        }
+        ByteBuffer buf = packed();
+        if (buf == null) {
+            return null;
+        }
+        int off = find(buf, name.getBytes(StandardCharsets.UTF_8));
+        return off < 0 ? null : packedId(buf, off);
+    }
+
+    /** Returns the names of all branches, sorted. */
+    List<String> names() {
+        List<String> names = new ArrayList<>(all().keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /** Returns every branch name with the id it points at. */
+    SortedMap<String, String> all() {
+        ByteBuffer buf = packed();
+        SortedMap<String, String> refs = buf == null ? new TreeMap<>() : packedRefs(buf);
+        for (String name : looseNames()) {
+            byte[] loose = read(looseFile(name));
+            if (loose != null) {
+                refs.put(name, decode(loose));
+            }
+        }
+        return refs;
+    }
+
+    /** Points branch NAME at ID, provided it points at EXPECTED now, or
+     *  does not exist if EXPECTED is null. */
+    void update(String name, String expected, String id) {
+        check(name, expected);
+        if (expected == null) {
+            checkNoClash(name);
+        }
+        // a packed branch that moves gets a loose ref too
+        if (read(looseFile(name)) == null) {
+            countLoose();
+        }
+        write(looseFile(name), Utils.fromHex(id));
+    }
+
+    /** Counts one more loose ref, first packing the others if there are
+     *  already LOOSE_LIMIT. Deleted refs stay counted until the next pack. */
+    private void countLoose() {
+        // an append the command did not read is not a conflict, so
+        // concurrent commands may each count theirs
+        long count = local ? Transaction.length(countFile) : countFile.length();
+        if (count >= LOOSE_LIMIT) {
+            pack();
+        }
+        if (local) {
+            Transaction.append(countFile, new byte[1]);
+        } else {
+            try (OutputStream out = new FileOutputStream(countFile, true)) {
+                out.write(0);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Deletes branch NAME, provided it points at EXPECTED now. */
+    void delete(String name, String expected) {
+        check(name, expected);
+        remove(looseFile(name));
+        ByteBuffer buf = packed();
+        if (buf != null && find(buf, name.getBytes(StandardCharsets.UTF_8)) >= 0) {
+            SortedMap<String, String> refs = packedRefs(buf);
+            refs.remove(name);
+            writePacked(refs);
+        }
+    }
+
+    /** Fails if a new branch NAME would need a loose ref where a
+     *  directory of others is, as branch x when x/y exists, or a directory
+     *  where a ref is, as x/y when x exists. Git refuses both. Only the
+     *  paths of NAME and its prefixes are looked at, never a listing. */
+    private void checkNoClash(String name) {
+        byte[] bytes = (name + "/").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = packed();
+        // an empty directory, which older versions left, can be removed
+        File dir = looseFile(name);
+        if (dir.isDirectory() && !dir.delete()
+            || buf != null && findPrefix(buf, bytes) >= 0) {
+            throw Utils.error("Cannot create branch %s: there are branches named %s/...",
+                              name, name);
+        }
+        for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+            String prefix = name.substring(0, i);
+            if (looseFile(prefix).isFile()
+                || buf != null && find(buf, prefix.getBytes(StandardCharsets.UTF_8)) >= 0) {
+                throw Utils.error("Cannot create branch %s: branch %s exists.", name, prefix);
+            }
+        }
+    }
+
+    /** Moves every loose ref into packed-refs. */
+    void pack() {
+        List<String> loose = looseNames();
+        writePacked(all());
+        for (String name : loose) {
+            remove(looseFile(name));
+        }
+        if (local) {
+            Transaction.delete(countFile);
+        } else {
+            countFile.delete();
+        }
+        // deleting a loose ref removes the directories it empties; older
+        // versions left them behind
+        pruneEmpty(looseDir);
+    }
+
+    /** Deletes the empty directories below DIR. */
+    private static void pruneEmpty(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                pruneEmpty(file);
+                file.delete();
+            }
+        }
+    }
+
+    /** Fails unless branch NAME points at EXPECTED, or does not exist if
+     *  EXPECTED is null. */
+    private void check(String name, String expected) {
+        if (!Objects.equals(get(name), expected)) {
+            throw Utils.error("Branch %s was changed by another command.", name);
+        }
+    }
+
+    private File looseFile(String name) {
+        return Utils.join(looseDir, name);
+    }
+
+    /** Returns the names of the loose refs on disk. */
+    private List<String> looseNames() {
+        List<String> names = new ArrayList<>();
+        addLooseNames(looseDir, "", names);
+        return names;
+    }
+
+    private static void addLooseNames(File dir, String prefix, List<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addLooseNames(file, prefix + file.getName() + "/", names);
+            } else if (!file.getName().endsWith(".lock")) {
+                names.add(prefix + file.getName());
+            }
+        }
+    }
+
+    /** Returns the id held by the loose ref CONTENT, which is a serialized
+     *  Branch unless it is exactly as long as a raw id. */
+    private static String decode(byte[] content) {
+        if (content.length != Utils.rawUidLength()) {
+            return Utils.deserialize(content, Branch.class).getLastCommit();
+        }
+        return Utils.toHex(content);
+    }
+
+    /** Returns the content of packed-refs, reading the file again only
+     *  when it has been replaced. */
+    private ByteBuffer packed() {
+        if (local && Transaction.holds(packedFile)) {
+            byte[] content = Transaction.read(packedFile);
+            return content == null ? null : checked(ByteBuffer.wrap(content));
+        }
+        List<Object> stamp;
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(packedFile.toPath(), BasicFileAttributes.class);
+            stamp = Arrays.asList(attrs.fileKey(), attrs.size(), attrs.lastModifiedTime());
+        } catch (NoSuchFileException excp) {
+            stamp = null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!Objects.equals(stamp, packedStamp)) {
+            packed = stamp == null ? null : Utils.readContents(packedFile);
+            packedStamp = stamp;
+        }
+        if (local) {
+            // what a later write of packed-refs is checked against
+            Transaction.saw(packedFile, packed);
+        }
+        return packed == null ? null : checked(ByteBuffer.wrap(packed));
+    }
+
+    /** Returns BUF after checking it holds a packed-refs file. */
+    private ByteBuffer checked(ByteBuffer buf) {
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("not a gitlet packed-refs file: " + packedFile);
+        }
+        return buf;
+    }
+
+    /** Returns the offset of the record named NAME in BUF, or -1. */
+    private static int find(ByteBuffer buf, byte[] name) {
+        int lo = 0;
+        int hi = buf.getInt(8);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int off = buf.getInt(HEADER_SIZE + 4 * mid);
+            int cmp = compare(buf, off, name);
+            if (cmp == 0) {
+                return off;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the offset of the first record in BUF whose name starts
+     *  with PREFIX, or -1 if there is none. */
+    private static int findPrefix(ByteBuffer buf, byte[] prefix) {
+        int lo = 0;
+        int hi = buf.getInt(8);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(buf, buf.getInt(HEADER_SIZE + 4 * mid), prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == buf.getInt(8)) {
+            return -1;
+        }
+        int off = buf.getInt(HEADER_SIZE + 4 * lo);
+        int len = buf.getShort(off) & 0xffff;
+        if (len < prefix.length) {
+            return -1;
+        }
+        for (int i = 0; i < prefix.length; i += 1) {
+            if (buf.get(off + 2 + i) != prefix[i]) {
+                return -1;
+            }
+        }
+        return off;
+    }
+
+    /** Compares the name of the record at OFF in BUF with NAME, byte by
+     *  unsigned byte. */
+    private static int compare(ByteBuffer buf, int off, byte[] name) {
+        int len = buf.getShort(off) & 0xffff;
+        for (int i = 0; i < Math.min(len, name.length); i += 1) {
+            int cmp = Integer.compare(buf.get(off + 2 + i) & 0xff, name[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(len, name.length);
+    }
+
+    private static String packedName(ByteBuffer buf, int off) {
+        byte[] name = new byte[buf.getShort(off) & 0xffff];
+        buf.get(off + 2, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static String packedId(ByteBuffer buf, int off) {
+        byte[] id = new byte[Utils.rawUidLength()];
+        buf.get(off + 2 + (buf.getShort(off) & 0xffff), id);
+        return Utils.toHex(id);
+    }
+
+    /** Returns the refs in the packed-refs content BUF. */
+    private static SortedMap<String, String> packedRefs(ByteBuffer buf) {
+        SortedMap<String, String> refs = new TreeMap<>();
+        int count = buf.getInt(8);
+        for (int i = 0; i < count; i += 1) {
+            int off = buf.getInt(HEADER_SIZE + 4 * i);
+            refs.put(packedName(buf, off), packedId(buf, off));
+        }
+        return refs;
+    }
+
+    /** Replaces packed-refs by one holding REFS. */
+    private void writePacked(Map<String, String> refs) {
+        List<byte[]> names = new ArrayList<>();
+        for (String name : refs.keySet()) {
+            names.add(name.getBytes(StandardCharsets.UTF_8));
+        }
+        names.sort(Arrays::compareUnsigned);
+        int idSize = Utils.rawUidLength();
+        int size = HEADER_SIZE + 4 * names.size();
+        for (byte[] name : names) {
+            size += 2 + name.length + idSize;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(names.size());
+        int off = HEADER_SIZE + 4 * names.size();
+        for (byte[] name : names) {
+            buf.putInt(off);
+            off += 2 + name.length + idSize;
+        }
+        for (byte[] name : names) {
+            buf.putShort((short) name.length).put(name);
+            buf.put(Utils.fromHex(refs.get(new String(name, StandardCharsets.UTF_8))));
+        }
+        write(packedFile, buf.array());
+    }
+
+    private byte[] read(File file) {
+        if (local) {
+            return Transaction.read(file);
+        }
+        return file.isFile() ? Utils.readContents(file) : null;
+    }
+
+    private void write(File file, byte[] content) {
+        if (local) {
+            Transaction.write(file, content);
+        } else {
+            Transaction.replace(file, content);
+        }
+    }
+
+    private void remove(File file) {
+        if (local) {
+            Transaction.delete(file);
+        } else {
+            Transaction.deleteBelow(file, looseDir);
+        }
+    }
+}
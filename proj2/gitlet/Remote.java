@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Other repositories on this machine, and the transfer of commits
+ *  between two repositories.
+ *
+ *  A remote is a name for the .gitlet directory of another repository,
+ *  kept in .gitlet/config as remote.NAME.path. The path is stored as
+ *  given, with "/" as separator, and relative paths are taken from the
+ *  working directory.
+ *
+ *  transfer() copies the history of one commit from a source repository
+ *  to a destination. The destination's commit graph is the set of
+ *  commits it has: a commit it has comes with all its ancestors, trees
+ *  and blobs, so the walk back from the commit wanted stops there. Of
+ *  the trees and blobs of the commits it does lack, only those it does
+ *  not store already are sent, and a tree it stores is not opened. All
+ *  of that goes into a new pack in the destination, with blobs as
+ *  deltas against the previous version sent of the same file, after
+ *  which the commits are added to its graph and log.
+ *
+ *  A clone may stop short of the whole history. With a depth, the walk
+ *  takes only the commits that many steps from the tip, and the last of
+ *  them are recorded as shallow in the destination: their parents are
+ *  missing on purpose, so nothing walks past them. Without blobs, only
+ *  commits and trees are sent, and config names the remote that Blob
+ *  fetches a missing blob from the first time it is read.
+ */
+class Remote {
+
+    /** Returns the config key of the path of remote NAME. */
+    private static String key(String name) {
+        return "remote." + name + ".path";
+    }
+
+    /** Names the .gitlet directory PATH as remote NAME. */
+    static void add(String name, String path) {
+        if (Config.get(key(name), null) != null) {
+            Utils.errorPrint("A remote with that name already exists.");
+        }
+        Config.set(key(name), path);
+    }
+
+    /** Forgets remote NAME. */
+    static void remove(String name) {
+        if (Config.get(key(name), null) == null) {
+            Utils.errorPrint("A remote with that name does not exist.");
+        }
+        Config.unset(key(name));
+    }
+
+    /** The store missing blobs are fetched from, opened on first use. */
+    private static ObjectStore promisor;
+
+    /** Returns the store of remote NAME. */
+    static ObjectStore open(String name) {
+        String path = Config.get(key(name), null);
+        if (path == null) {
+            Utils.errorPrint("A remote with that name does not exist.");
+        }
+        ObjectStore store = at(path);
+        if (ObjectFormat.of(store.dir) != ObjectFormat.current()) {
+            Utils.errorPrint("The remote uses a different object format.");
+        }
+        return store;
+    }
+
+    /** Returns the store of the .gitlet directory PATH. */
+    static ObjectStore at(String path) {
+        File dir = new File(path.replace("/", File.separator));
+        if (!dir.isAbsolute()) {
+            dir = new File(Repository.CWD, dir.getPath());
+        }
+        if (!Utils.join(dir, "REPO").isFile()) {
+            Utils.errorPrint("Remote directory not found.");
+        }
+        return new ObjectStore(dir);
+    }
+
+    /** Copies commit TIP and all the history behind it that DEST lacks
+     *  from SRC to DEST. Returns the number of objects copied. */
+    static int transfer(ObjectStore src, ObjectStore dest, String tip) {
+        return transfer(src, dest, tip, 0, true);
+    }
+
+    /** Like transfer(SRC, DEST, TIP), but only copies the commits fewer
+     *  than DEPTH steps from TIP if DEPTH is positive, and no blobs
+     *  unless BLOBS. */
+    static int transfer(ObjectStore src, ObjectStore dest, String tip,
+                        int depth, boolean blobs) {
+        if (dest.hasCommit(tip)) {
+            return 0;
+        }
+        // the commits wanted: those reachable from TIP that DEST does not
+        // have, breadth first so that each gets its least distance
+        Map<String, Commit> wanted = new HashMap<>();
+        Map<String, Integer> distance = new HashMap<>();
+        Set<String> srcShallow = src.shallow();
+        // wanted commits whose parents DEST will still lack
+        Set<String> shallow = new LinkedHashSet<>();
+        Deque<String> work = new ArrayDeque<>();
+        work.add(tip);
+        distance.put(tip, 1);
+        while (!work.isEmpty()) {
+            String id = work.poll();
+            Commit cmt = Utils.deserialize(src.read(Pack.COMMIT, id), Commit.class);
+            wanted.put(id, cmt);
+            boolean cut = depth > 0 && distance.get(id) >= depth || srcShallow.contains(id);
+            for (String parent : new String[] {cmt.getParent(), cmt.getSecondParent()}) {
+                if (parent.isEmpty() || dest.hasCommit(parent)) {
+                    continue;
+                }
+                if (cut) {
+                    shallow.add(id);
+                } else if (!distance.containsKey(parent)) {
+                    distance.put(parent, distance.get(id) + 1);
+                    work.add(parent);
+                }
+            }
+        }
+
+        // parents before children, as the commit graph needs them
+        List<String> ids = new ArrayList<>();
+        List<Commit> cmts = new ArrayList<>();
+        Map<String, Commit> pending = new HashMap<>(wanted);
+        work.push(tip);
+        while (!work.isEmpty()) {
+            String top = work.peek();
+            Commit cmt = pending.get(top);
+            if (cmt == null) {
+                work.pop();
+                continue;
+            }
+            boolean ready = true;
+            for (String parent : new String[] {cmt.getParent(), cmt.getSecondParent()}) {
+                if (pending.containsKey(parent)) {
+                    work.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                work.pop();
+                pending.remove(top);
+                ids.add(top);
+                cmts.add(cmt);
+            }
+        }
+
+        Pack.Writer writer = dest.packWriter();
+        // fileName -> the last version of it added to the pack
+        Map<String, String> lastVersion = new HashMap<>();
+        for (int i = 0; i < ids.size(); i += 1) {
+            Commit cmt = cmts.get(i);
+            writer.add(ids.get(i), Pack.COMMIT, src.read(Pack.COMMIT, ids.get(i)));
+            if (cmt.hasTree()) {
+                sendTree(src, dest, writer, cmt.getTree(), "", blobs, lastVersion);
+            } else if (blobs) {
+                for (Map.Entry<String, String> entry : cmt.getBlobs().entrySet()) {
+                    sendBlob(src, dest, writer, entry.getKey(), entry.getValue(), lastVersion);
+                }
+            }
+        }
+        dest.receive(writer, ids, cmts, shallow);
+        return writer.size();
+    }
+
+    /** Adds tree TREEID of SRC, found at PREFIX, and whatever below it
+     *  DEST lacks to WRITER, leaving out blobs unless BLOBS. */
+    private static void sendTree(ObjectStore src, ObjectStore dest, Pack.Writer writer,
+                                 String treeId, String prefix, boolean blobs,
+                                 Map<String, String> lastVersion) {
+        if (writer.contains(treeId) || dest.has(Pack.TREE, treeId)) {
+            return;
+        }
+        byte[] content = src.read(Pack.TREE, treeId);
+        writer.add(treeId, Pack.TREE, content);
+        for (Map.Entry<String, String> entry : Tree.parse(content).entrySet()) {
+            if (entry.getKey().endsWith("/")) {
+                sendTree(src, dest, writer, entry.getValue(), prefix + entry.getKey(),
+                         blobs, lastVersion);
+            } else if (blobs) {
+                sendBlob(src, dest, writer, prefix + entry.getKey(), entry.getValue(),
+                         lastVersion);
+            }
+        }
+    }
+
+    /** Adds blob BLOBID of SRC, the content of FILENAME, to WRITER unless
+     *  DEST has it, as a delta against the version of FILENAME added last
+     *  if that is smaller. */
+    private static void sendBlob(ObjectStore src, ObjectStore dest, Pack.Writer writer,
+                                 String fileName, String blobId,
+                                 Map<String, String> lastVersion) {
+        if (writer.contains(blobId) || dest.has(Pack.BLOB, blobId)) {
+            return;
+        }
+        String base = lastVersion.get(fileName);
+        writer.addBlob(blobId, src.read(Pack.BLOB, blobId),
+                       base, base == null ? null : src.read(Pack.BLOB, base));
+        lastVersion.put(fileName, blobId);
+    }
+
+    /** Forgets the store opened by fetchBlob, whose packs or location
+     *  may change between the commands a Server runs. */
+    static synchronized void reset() {
+        promisor = null;
+    }
+
+    /** Returns the content of blob ID, fetched from the remote named by
+     *  Config.PARTIAL_CLONE and stored here, or null if this repository
+     *  is not a partial clone or the remote lacks the blob too. */
+    static synchronized byte[] fetchBlob(String id) {
+        String name = Config.get(Config.PARTIAL_CLONE, null);
+        if (name == null) {
+            return null;
+        }
+        if (promisor == null) {
+            promisor = open(name);
+        }
+        if (!promisor.has(Pack.BLOB, id)) {
+            return null;
+        }
+        byte[] content = promisor.read(Pack.BLOB, id);
+        Blob.write(content);
+        return content;
+    }
+}
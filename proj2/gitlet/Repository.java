@@ -1,10 +1,21 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static gitlet.Utils.*;
 
@@ -14,12 +25,17 @@ import static gitlet.Utils.*;
  *  @author luohuang
  */
 public class Repository implements Serializable {
+    /** Keeps existing REPO files readable, see Commit. */
+    private static final long serialVersionUID = -6160919421650504728L;
 
 
     /** The current working directory. */
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
+    /** Number of threads storing blobs in add. */
+    private static final int ADD_THREADS =
+        Math.min(8, Runtime.getRuntime().availableProcessors());
     /** The current pointer */
     private String head;
     /** The current branch */
@@ -28,9 +44,9 @@ public class Repository implements Serializable {
     public Repository() {
         if (GITLET_DIR.exists()) {
             String sp = File.separator;
-            File repo = join(GITLET_DIR, "REPO");
-            if (repo.exists()) {
-                Repository repoObj = Utils.readObject(repo, Repository.class);
+            byte[] repo = Transaction.read(join(GITLET_DIR, "REPO"));
+            if (repo != null) {
+                Repository repoObj = Utils.deserialize(repo, Repository.class);
                 head = repoObj.head;
                 branch = repoObj.branch;
             }
@@ -38,37 +54,148 @@ public class Repository implements Serializable {
     }
 
     public void init() {
+        init(ObjectFormat.SHA1);
+    }
+
+    /** Creates a repository whose objects are named by hashes of FORMAT. */
+    public void init(ObjectFormat format) {
         if (GITLET_DIR.exists()) { // error in 2024/8/12/3:30 - 4:58
             errorPrint("A Gitlet version-control system already exists in the current directory.");
         }
         GITLET_DIR.mkdir();
+        Config.set(Config.FORMAT_VERSION, Integer.toString(Config.CURRENT_FORMAT));
+        ObjectFormat.use(format);
         //create init commit
         Commit cmt = new Commit();
 //        cmt.initCommit();
         head = cmt.write();
         // create master branch
-        Branch br = new Branch("master", Utils.sha1(Utils.serialize(cmt)));
+        Branch br = new Branch("master", head);
         br.write();
         branch = "master";
         save();
     }
 
-    public void add(String fileName) {
-//        File file = new File(GITLET_DIR, fileName);
-        File file = new File(fileName);
-        if (!file.exists()) {
-            errorPrint("File does not exist."); // bug
+    /** Stages the files PATHS, adding every file below a directory. The
+     *  files are hashed and stored on a pool of ADD_THREADS threads, and
+     *  the staging area is written once at the end. */
+    public void add(String... paths) {
+        List<String> fileNames = new ArrayList<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (!file.exists()) {
+                errorPrint("File does not exist."); // bug
+            }
+            if (file.isDirectory()) {
+                addDirectory(file, fileNames);
+            } else {
+                fileNames.add(path);
+            }
+        }
+        // copy files to blob directory, unless the stat cache shows they
+        // are already stored. Reading the whole cache costs more than
+        // hashing a single file, so one file is simply stored.
+        Map<String, String> blobIds;
+        if (fileNames.size() == 1) {
+            String fileName = fileNames.get(0);
+            blobIds = Map.of(fileName, Blob.write(new File(fileName)));
+        } else {
+            StatCache cache = new StatCache();
+            blobIds = storeBlobs(fileNames, cache);
+            cache.write();
         }
-        // copy file to blob directory
-        Blob blob = new Blob(file);
-        String blobId = blob.write();
         //update staging area
-        File stageFile = join(StagingArea.STAGE_FILE, blobId);
+        Commit headCmt = Commit.read(head);
         StagingArea stage = new StagingArea();
-        stage.add(fileName, blobId, head);
+        for (String fileName : fileNames) {
+            stage.add(fileName, blobIds.get(fileName), headCmt);
+        }
         stage.write();
     }
 
+    /** Returns the paths of the working files, below directories too,
+     *  relative to CWD and with "/" as separator. */
+    static List<String> workingFiles() {
+        List<String> fileNames = new ArrayList<>();
+        addDirectory(CWD, fileNames);
+        return fileNames;
+    }
+
+    /** Adds the names of the files below DIR, relative to CWD and in
+     *  sorted order, to FILENAMES. The .gitlet directory is skipped. */
+    private static void addDirectory(File dir, List<String> fileNames) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File f : files) {
+            File abs = f.getAbsoluteFile().toPath().normalize().toFile();
+            if (abs.equals(GITLET_DIR)) {
+                continue;
+            }
+            if (f.isDirectory()) {
+                addDirectory(f, fileNames);
+            } else if (f.isFile()) {
+                fileNames.add(CWD.toPath().relativize(abs.toPath()).toString()
+                              .replace(File.separatorChar, '/'));
+            }
+        }
+    }
+
+    /** Stores FILENAMES as blobs and returns their ids. Files that CACHE
+     *  shows to be stored already are not read; the others are hashed and
+     *  written in parallel and recorded in CACHE. */
+    private static Map<String, String> storeBlobs(List<String> fileNames, StatCache cache) {
+        Map<String, String> blobIds = new HashMap<>();
+        List<String> pending = new ArrayList<>();
+        for (String fileName : fileNames) {
+            String blobId = cache.blobId(new File(fileName));
+            if (blobId != null && Blob.exists(blobId)) {
+                blobIds.put(fileName, blobId);
+            } else {
+                pending.add(fileName);
+            }
+        }
+        if (pending.size() < 2 || ADD_THREADS < 2) {
+            for (String fileName : pending) {
+                File file = new File(fileName);
+                String blobId = Blob.write(file);
+                blobIds.put(fileName, blobId);
+                cache.put(file, blobId);
+            }
+            return blobIds;
+        }
+        // a full queue makes the submitting thread store the blob itself,
+        // so at most ADD_THREADS * 4 files wait at a time
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(ADD_THREADS, ADD_THREADS,
+            0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(ADD_THREADS * 4),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (String fileName : pending) {
+                results.add(pool.submit(() -> Blob.write(new File(fileName))));
+            }
+            for (int i = 0; i < pending.size(); i += 1) {
+                File file = new File(pending.get(i));
+                String blobId = results.get(i).get();
+                blobIds.put(pending.get(i), blobId);
+                cache.put(file, blobId);
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp);
+        } finally {
+            pool.shutdownNow();
+        }
+        return blobIds;
+    }
+
     public void commitCommand(String msg) {
         if (msg == null || msg.isEmpty()) {
             errorPrint("Please enter a commit message.");
@@ -78,8 +205,8 @@ public class Repository implements Serializable {
         if (stagingArea.isEmpty()) {
             errorPrint("No changes added to the commit.");
         }
-        Map<String, String> cmtBlobs = Commit.mergeBlobs(oldCmt, stagingArea);
-        Commit newCommit = new Commit(msg, head, "", cmtBlobs);
+        String cmtTree = Commit.mergeBlobs(oldCmt, stagingArea);
+        Commit newCommit = new Commit(msg, head, "", cmtTree);
         head = newCommit.write();
         stagingArea.clear();
 
@@ -91,23 +218,29 @@ public class Repository implements Serializable {
     }
 
     public void rm(String fileName) {
-        File stageFile = Utils.join(StagingArea.STAGE_FILE);
-        StagingArea stagingArea;
-        if (!stageFile.exists()) {
-            stagingArea = new StagingArea();
-        } else {
-            stagingArea = Utils.readObject(stageFile, StagingArea.class);
-        }
+        StagingArea stagingArea = new StagingArea();
         stagingArea.remove(fileName, head);
         stagingArea.write();
     }
 
     public void log() {
-        String cmtId = head;
-        while (!cmtId.equals("")) {
-            Commit cmt = Commit.read(cmtId);
-            System.out.println(cmt.toString());
-            cmtId = cmt.getParent();
+        // follow first parents through the commit graph. The commit log
+        // has a record per graph position, so nothing else is read unless
+        // the two are out of step.
+        CommitGraph graph = CommitGraph.open();
+        List<CommitLog.Entry> entries = new ArrayList<>();
+        CommitLog.open().forEach(entries::add);
+        int pos = graph.position(head);
+        while (pos != CommitGraph.NONE) {
+            String id = graph.id(pos);
+            CommitLog.Entry e = pos < entries.size() ? entries.get(pos) : null;
+            if (e != null && e.id.equals(id)) {
+                System.out.println(Commit.format(e.id, e.parent1, e.parent2,
+                                                 e.timestamp, e.message));
+            } else {
+                System.out.println(Commit.read(id).toString());
+            }
+            pos = graph.parent1(pos);
         }
     }
 
@@ -124,6 +257,15 @@ public class Repository implements Serializable {
         list.forEach(System.out::println);
     }
 
+    /** Prints the ids of the commits whose message contains TEXT. */
+    public void findContaining(String text) {
+        List<String> list = Commit.findContaining(text);
+        if (list.isEmpty()) {
+            errorPrint("Found no commit with that message.");
+        }
+        list.forEach(System.out::println);
+    }
+
     public void status() {
         // Branch status
         System.out.println("=== Branches ===");
@@ -152,15 +294,23 @@ public class Repository implements Serializable {
         System.out.println();
 
         //  Modifications
+        Commit headCmt = Commit.read(head);
+        StatCache cache = new StatCache();
         System.out.println("=== Modifications Not Staged For Commit ===");
-        for (String fileName : stage.getUnstagedFiles(head)) {
+        for (String fileName : stage.getUnstagedFiles(headCmt, cache)) {
             System.out.println(fileName);
         }
         System.out.println();
+        // tracked and staged paths, below directories too; the rest of
+        // the working files are not hashed again until they are added
+        Set<String> tracked = new HashSet<>(headCmt.getBlobs().keySet());
+        tracked.addAll(stage.getBlobMap().keySet());
+        cache.retain(tracked);
+        cache.write();
 
         // Untracked Files
         System.out.println("=== Untracked Files ===");
-        for (String fileName : stage.getUntrackedFiles(head)) {
+        for (String fileName : stage.getUntrackedFiles(headCmt)) {
             System.out.println(fileName);
         }
         System.out.println();
@@ -172,27 +322,24 @@ public class Repository implements Serializable {
         }
         Commit cmt = Commit.read(cmtId);
         if (cmt == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            errorPrint("No commit with that id exists.");
         }
-        if (!cmt.getBlobs().containsKey(fileName)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+        String blobId = cmt.getBlob(fileName);
+        if (blobId == null) {
+            errorPrint("File does not exist in that commit.");
         }
-        String blobId = cmt.getBlobs().get(fileName);
-        byte[] fileContent = Blob.getBlobByte(blobId);
-        Utils.writeContents(new File(fileName), fileContent);
+        StatCache cache = new StatCache();
+        writeWorkingFile(fileName, blobId, cache);
+        cache.write();
     }
 
     public void checkout(String branchName) {
         if (branchName.equals(branch)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            errorPrint("No need to checkout the current branch.");
         }
         Branch br = Branch.read(branchName);
         if (br == null) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            errorPrint("No such branch exists.");
         }
         updateCheckout(br.getLastCommit());
         // update repo
@@ -205,57 +352,106 @@ public class Repository implements Serializable {
         stagingArea.write();
     }
 
+    /** Makes the working files match commit COMMITID instead of HEAD.
+     *  Only the files that differ between the two commits are written or
+     *  deleted, and subtrees the commits share are not even read. */
     public void updateCheckout(String commitId) {
         // read target the newest commit
         Commit cmt = Commit.read(commitId);
-        Set<String> cmtFiles = cmt.getBlobs().keySet();
         // read the newest commit in HEAD
         Commit curCmt = Commit.read(head);
-        Set<String> curCmtFiles = curCmt.getBlobs().keySet();
+        SortedMap<String, String[]> changes = Commit.diff(curCmt, cmt);
+        StatCache cache = new StatCache();
         // check untracked files and overwrite them
-        checkOverwritten(cmt, curCmt);
-        // update target file
-        for (String fileName : cmtFiles) {
-            byte[] fileContent = Blob.getBlobByte(cmt.getBlobs().get(fileName));
-            Utils.writeContents(new File(fileName), fileContent);
-        }
-        // delete current branch files which don't exist in target branch files.
-        for (String fileName : curCmtFiles) {
-            if (!cmtFiles.contains(fileName)) {
-                Utils.restrictedDelete(new File(fileName));
+        checkOverwritten(changes, cache);
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String fileName = change.getKey();
+            String blobId = change.getValue()[1];
+            if (blobId == null) {
+                // delete current branch files which don't exist in target branch files.
+                deleteWorkingFile(fileName);
+                cache.remove(fileName);
+            } else {
+                // update target file
+                writeWorkingFile(fileName, blobId, cache);
             }
         }
+        cache.write();
     }
 
-    private void checkOverwritten(Commit otherCmt,  Commit curCmt) {
-        // current directory files
-        List<String> curDirFiles = Utils.plainFilenamesIn(CWD);
-        // other branch's latest files
-        Set<String> cmtFiles = otherCmt.getBlobs().keySet();
-        for (String fileName : curDirFiles) {
-            if (!curCmt.getBlobs().containsKey(fileName)) {
-                if (cmtFiles.contains(fileName)) {
-                    String fileID = otherCmt.getBlobs().get(fileName);
-                    if (!fileID.equals(Utils.readContents(new File(fileName)))) {
-                        System.out.print("There is an untracked file in the way;");
-                        System.out.print(" delete it, or add and commit it first.\n");
-                        System.exit(0);
-                    }
-                }
+    /** Exits with an error if one of CHANGES, the differences from HEAD
+     *  to the commit being checked out, would overwrite a file HEAD does
+     *  not track. A file that already has the content it would be given
+     *  is not in the way; CACHE spares reading files whose stat data is
+     *  unchanged. */
+    private void checkOverwritten(SortedMap<String, String[]> changes, StatCache cache) {
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String[] ids = change.getValue();
+            if (ids[0] != null || ids[1] == null) {
+                continue; // tracked by HEAD, or not written
+            }
+            File file = new File(change.getKey());
+            if (file.isFile() && !ids[1].equals(cache.hash(file))) {
+                untrackedInTheWay();
+            }
+        }
+    }
+
+    /** Exits with the error for an untracked file that would be
+     *  overwritten. */
+    private static void untrackedInTheWay() {
+        errorPrint("There is an untracked file in the way;"
+                   + " delete it, or add and commit it first.");
+    }
+
+    /** Writes blob BLOBID to working file FILENAME, creating its
+     *  directory if needed, and records it in CACHE. */
+    private static void writeWorkingFile(String fileName, String blobId, StatCache cache) {
+        writeWorkingFile(fileName, blobId, Blob.getBlobByte(blobId), cache);
+    }
+
+    /** Like writeWorkingFile, for blob BLOBID whose CONTENT is known. */
+    private static void writeWorkingFile(String fileName, String blobId, byte[] content,
+                                         StatCache cache) {
+        File file = new File(fileName);
+        File dir = file.getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        Utils.writeContents(file, content);
+        cache.put(file, blobId);
+    }
+
+    /** Deletes working file FILENAME and then any directories it leaves
+     *  empty. */
+    static void deleteWorkingFile(String fileName) {
+        File file = join(CWD, fileName);
+        if (file.isDirectory()) {
+            return;
+        }
+        file.delete();
+        for (File dir = file.getParentFile(); !dir.equals(CWD); dir = dir.getParentFile()) {
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                break;
             }
         }
     }
 
     public void creatBranch(String branchName) {
-        if (Branch.allBranches().contains(branchName)) {
+        if (Branch.read(branchName) != null) {
             errorPrint("A branch with that name already exists.");
         }
+        if (branchName.endsWith(".lock")) {
+            // the name of the file other processes write a ref through
+            errorPrint("A branch name cannot end in .lock.");
+        }
         Branch br = new Branch(branchName, head);
         br.write();
     }
 
     public void removeBranch(String branchName) {
-        if (!Branch.allBranches().contains(branchName)) {
+        if (Branch.read(branchName) == null) {
             errorPrint("A branch with that name does not exist.");
         }
         if (branchName.equals(branch)) {
@@ -270,6 +466,11 @@ public class Repository implements Serializable {
             errorPrint("No commit with that id exists.");
         }
         updateCheckout(cmtId);
+        // move the current branch, and HEAD with it, to the commit
+        head = cmt.getHash();
+        Branch br = Branch.read(branch);
+        br.updateLastCommit(head);
+        br.write();
         save();
 
         StagingArea stagingArea = new StagingArea();
@@ -288,64 +489,49 @@ public class Repository implements Serializable {
         Commit splitCmt = Commit.read(splitId);
         Commit otherCmt = Commit.read(otherBr.getLastCommit());
         Commit headCmt = Commit.read(head);
-        checkOverwritten(otherCmt, headCmt);
+        MergePlan plan = MergePlan.plan(splitCmt, headCmt, otherCmt);
 
-        Map<String, String> headBlobs = headCmt.getBlobs();
-        Map<String, String> otherBlobs = otherCmt.getBlobs();
-        Map<String, String> splitBlobs = splitCmt.getBlobs();
-        boolean conflict = false;
-        for (String file : headBlobs.keySet()) {
-
-            if (splitBlobs.getOrDefault(file, "").equals(headBlobs.get(file))) {
-                if (!otherBlobs.containsKey(file)) { // 6
-                    stage.remove(file, head);
-                    continue;
-                } else if (!otherBlobs.getOrDefault(file, "").equals(headBlobs.get(file))) { // 1
-                    checkout(otherBr.getLastCommit(), file);
-                    stage.add(file, otherBlobs.getOrDefault(file, ""), head);
-                    continue;
-                }
-            }
-            if (!otherBlobs.containsKey(file) && !splitBlobs.containsKey(file)) { //4
-                continue;
-            }
-            if (otherBlobs.getOrDefault(file, "").equals(headBlobs.get(file))) {  // 3.1
+        // check every file the plan would write before touching any
+        StatCache cache = new StatCache();
+        for (MergePlan.Step step : plan.steps()) {
+            if (step.head != null || step.action == MergePlan.Action.KEEP) {
                 continue;
             }
-            String splitID2 = splitBlobs.getOrDefault(file, "");
-            if (!otherBlobs.getOrDefault(file, "").equals(headBlobs.get(file))) { //3.2
-                if (splitBlobs.getOrDefault(file, "").equals(headBlobs.get(file))) {
-                    continue;
-                } else if (splitID2.equals(otherBlobs.getOrDefault(file, ""))) {
-                    continue;
-                } else {
-                    conflict = true;
-                    dC(stage, headBlobs, otherBlobs, file);
-                }
+            File file = new File(step.path);
+            if (file.isFile() && (step.action == MergePlan.Action.CONFLICT
+                                  || !step.other.equals(cache.hash(file)))) {
+                untrackedInTheWay();
             }
         }
 
-        for (String file : otherBlobs.keySet()) {
-//   if (splitBlobs.getOrDefault(file, "").equals(headBlobs.getOrDefault(file, ""))) bugggg!!!
-            if (splitBlobs.getOrDefault(file, "").equals(otherBlobs.getOrDefault(file, ""))) {
-                if (!headBlobs.containsKey(file)) { // 7
-                    continue;
-                } else if (!headBlobs.getOrDefault(file, "").equals(otherBlobs.get(file))) { // 2
-                    continue;
-                }
-            }
-            if (!headBlobs.containsKey(file) && !splitBlobs.containsKey(file)) {
-                checkout(otherBr.getLastCommit(), file); // 5
-                stage.add(file, otherBlobs.get(file), head);
-                continue;
+        // path -> new blob id, or null to delete, relative to HEAD
+        Map<String, String> changes = new HashMap<>();
+        boolean conflict = false;
+        for (MergePlan.Step step : plan.steps()) {
+            switch (step.action) {
+                case TAKE_THEIRS:
+                    writeWorkingFile(step.path, step.other, cache);
+                    changes.put(step.path, step.other);
+                    break;
+                case DELETE:
+                    deleteWorkingFile(step.path);
+                    cache.remove(step.path);
+                    changes.put(step.path, null);
+                    break;
+                case CONFLICT:
+                    conflict |= dC(step, changes, cache);
+                    break;
+                default:
+                    break;
             }
         }
+        cache.write();
         if (conflict) {
             System.out.println("Encountered a merge conflict.");
         }
         String msg = "Merged " + branchName + " into " + this.branch + ".";
-        Map<String, String> cmtMap = Commit.mergeBlobs(headCmt, stage);
-        Commit cmt = new Commit(msg, head, otherBr.getLastCommit(), cmtMap);
+        String cmtTree = Tree.update(headCmt.getTree(), changes);
+        Commit cmt = new Commit(msg, head, otherBr.getLastCommit(), cmtTree);
         head = cmt.write();
         stage.clear();
         Branch br = Branch.read(branch);
@@ -354,32 +540,134 @@ public class Repository implements Serializable {
         save();
     }
 
-
-    /**
-     * @author luohuang
-     */
-    private void dC(StagingArea st, Map<String, String> hB, Map<String, String> oB, String f) {
-        byte[] f1 = Blob.getBlobByte(hB.getOrDefault(f, ""));
-        String content1 = new String(f1, StandardCharsets.UTF_8);
-        String content2;
-        if (!oB.containsKey(f)) {
-            content2 = "";
+    /** Resolves the conflicting STEP of a merge by merging the changes
+     *  line by line, writes the result to the working file and records
+     *  its blob in CHANGES and CACHE. Returns true iff some lines
+     *  conflict, in which case only those are written between conflict
+     *  markers. A file missing on one side, or a binary one, conflicts as
+     *  a whole. */
+    private boolean dC(MergePlan.Step step, Map<String, String> changes, StatCache cache) {
+        byte[] f1 = step.head == null ? new byte[0] : Blob.getBlobByte(step.head);
+        byte[] f2 = step.other == null ? new byte[0] : Blob.getBlobByte(step.other);
+        byte[] merged;
+        boolean conflict = true;
+        if (step.head == null || step.other == null) {
+            merged = wholeFileConflict(f1, f2);
         } else {
-            byte[] f2 = Blob.getBlobByte(oB.get(f));
-            content2 = new String(f2, StandardCharsets.UTF_8);
+            byte[] base = step.split == null ? new byte[0] : Blob.getBlobByte(step.split);
+            if (Diff.isBinary(ByteBuffer.wrap(f1)) || Diff.isBinary(ByteBuffer.wrap(f2))
+                || Diff.isBinary(ByteBuffer.wrap(base))) {
+                merged = wholeFileConflict(f1, f2);
+            } else {
+                Diff.Merge m = Diff.merge3(new Diff.Lines(base), new Diff.Lines(f1),
+                                           new Diff.Lines(f2));
+                merged = m.content;
+                conflict = m.conflict;
+            }
         }
+        String blobId = Blob.write(merged);
+        writeWorkingFile(step.path, blobId, merged, cache);
+        changes.put(step.path, blobId);
+        return conflict;
+    }
+
+    /** Returns OURS and THEIRS written whole between conflict markers. */
+    private static byte[] wholeFileConflict(byte[] ours, byte[] theirs) {
         StringBuilder sb = new StringBuilder();
         sb.append("<<<<<<< HEAD\n");
-        sb.append(content1);
+        sb.append(new String(ours, StandardCharsets.UTF_8));
         sb.append("=======\n");
-        sb.append(content2);
+        sb.append(new String(theirs, StandardCharsets.UTF_8));
         sb.append(">>>>>>>\n");
-        File conFile = new File(f);
-        Utils.writeContents(conFile, sb.toString());
-        Blob conBlob = new Blob(conFile);
-        st.add(f, conBlob.write(), head);
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Prints, as a unified diff, the changes from commit FROMID to commit
+     *  TOID. FROMID defaults to HEAD, and a null TOID means the working
+     *  files tracked by FROMID or staged for addition. Only paths whose
+     *  blobs differ are read: between commits the tree diff skips shared
+     *  subtrees, and working files whose stat data matches the index are
+     *  taken to be unchanged. Working files are read through a memory
+     *  mapping. */
+    public void diff(String fromId, String toId) {
+        Commit from = readCommitOrExit(fromId == null ? head : fromId);
+        SortedMap<String, String[]> changes;
+        if (toId != null) {
+            changes = Commit.diff(from, readCommitOrExit(toId));
+        } else {
+            changes = workingChanges(from);
+        }
+        // System.out rather than the descriptor, which a Server running the
+        // command has pointed at its client
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        try {
+            for (Map.Entry<String, String[]> change : changes.entrySet()) {
+                String path = change.getKey();
+                String[] ids = change.getValue();
+                ByteBuffer a = ids[0] == null ? ByteBuffer.allocate(0)
+                                              : ByteBuffer.wrap(Blob.getBlobByte(ids[0]));
+                ByteBuffer b;
+                if (toId != null) {
+                    b = ids[1] == null ? ByteBuffer.allocate(0)
+                                       : ByteBuffer.wrap(Blob.getBlobByte(ids[1]));
+                } else {
+                    b = ids[1] == null ? ByteBuffer.allocate(0) : mapFile(new File(path));
+                }
+                String nameA = ids[0] == null ? "/dev/null" : "a/" + path;
+                String nameB = ids[1] == null ? "/dev/null" : "b/" + path;
+                out.write(("diff --git a/" + path + " b/" + path + "\n")
+                          .getBytes(StandardCharsets.UTF_8));
+                if (Diff.isBinary(a) || Diff.isBinary(b)) {
+                    out.write(("Binary files " + nameA + " and " + nameB + " differ\n")
+                              .getBytes(StandardCharsets.UTF_8));
+                } else {
+                    Diff.unified(nameA, nameB, new Diff.Lines(a), new Diff.Lines(b), out);
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the tracked working files that differ from commit CMT, each
+     *  mapped to its blob id in CMT and to its working blob id, null where
+     *  it is missing. */
+    private SortedMap<String, String[]> workingChanges(Commit cmt) {
+        Set<String> tracked = new TreeSet<>(cmt.getBlobs().keySet());
+        tracked.addAll(new StagingArea().getBlobMap().keySet());
+        StatCache cache = new StatCache();
+        SortedMap<String, String[]> changes = new TreeMap<>();
+        for (String path : tracked) {
+            String id = cmt.getBlob(path);
+            File file = new File(path);
+            String workId = file.isFile() ? cache.hash(file) : null;
+            if (!Objects.equals(id, workId)) {
+                changes.put(path, new String[] {id, workId});
+            }
+        }
+        cache.write();
+        return changes;
+    }
+
+    /** Returns commit ID, exiting with an error if there is none. */
+    private static Commit readCommitOrExit(String id) {
+        Commit cmt = Commit.read(id);
+        if (cmt == null) {
+            errorPrint("No commit with that id exists.");
+        }
+        return cmt;
+    }
+
+    /** Returns a read-only memory mapping of FILE. */
+    private static ByteBuffer mapFile(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
-    
+
     /**
      * @author luohuang
      */
@@ -395,11 +683,16 @@ public class Repository implements Serializable {
         }
         String otherLastCmt = otherBr.getLastCommit();
         String splitId = lca(head, otherLastCmt);
+        if (splitId.isEmpty()) {
+            // only a shallow clone can lack the common history
+            errorPrint("No split point in the history of this shallow clone.");
+        }
         if (splitId.equals(otherLastCmt)) {
             errorPrint("Given branch is an ancestor of the current branch.");
         }
         if (splitId.equals(head)) {
-            checkout(branchName);
+            // move the current branch, rather than switching to the other
+            reset(otherLastCmt);
             errorPrint("Current branch fast-forwarded.");
         }
         return splitId;
@@ -409,37 +702,312 @@ public class Repository implements Serializable {
      * @author luohuang
      */
     private String lca(String cmt1, String cmt2) {
-        // find the latest common ancestor
-//        List<String> cmt1Files = Utils.plainFilenamesIn(cmt1);  bugggg!!!
-        List<String> cmt1List = new ArrayList<>();
-        while (!cmt1.equals("")) {
-            cmt1List.add(cmt1);
-            Commit tmp = Commit.read(cmt1);
-            cmt1 = tmp.getParent();
-        }
-        while (!cmt2.equals("")) {
-            if (cmt1List.contains(cmt2)) {
-                return cmt2;
+        // find the latest common ancestor, following both parents
+        CommitGraph graph = CommitGraph.open();
+        int split = MergeBase.find(graph, graph.position(cmt1), graph.position(cmt2));
+        return split == CommitGraph.NONE ? "" : graph.id(split);
+    }
+
+    public void addRemote(String remoteName, String path) {
+        Remote.add(remoteName, path);
+    }
+
+    public void removeRemote(String remoteName) {
+        Remote.remove(remoteName);
+    }
+
+    /** Copies branch REMOTEBRANCH of remote REMOTENAME, with the history
+     *  this repository lacks, to the branch REMOTENAME/REMOTEBRANCH. */
+    public void fetch(String remoteName, String remoteBranch) {
+        ObjectStore remote = Remote.open(remoteName);
+        Branch br = remote.branch(remoteBranch);
+        if (br == null) {
+            errorPrint("That remote does not have that branch.");
+        }
+        Remote.transfer(remote, ObjectStore.local(), br.getLastCommit());
+        String name = remoteName + "/" + remoteBranch;
+        Branch tracking = Branch.read(name);
+        if (tracking == null) {
+            tracking = new Branch(name, br.getLastCommit());
+        }
+        tracking.updateLastCommit(br.getLastCommit());
+        tracking.write();
+    }
+
+    /** Copies the current branch, with the history remote REMOTENAME
+     *  lacks, to its branch REMOTEBRANCH, which must be behind it. If that
+     *  is the remote's current branch, its HEAD moves too, but not its
+     *  working files. */
+    public void push(String remoteName, String remoteBranch) {
+        ObjectStore remote = Remote.open(remoteName);
+        if (join(remote.dir, "serve.sock").exists()
+            || join(remote.dir, Transaction.JOURNAL_FILE.getName()).exists()) {
+            // a server would write refs of the remote behind our back, and
+            // a journal is only recovered by a command run there
+            errorPrint("The remote repository is busy; run a command in it first.");
+        }
+        Branch br = remote.branch(remoteBranch);
+        String theirs = br == null ? null : br.getLastCommit();
+        if (theirs != null
+            && (!CommitGraph.open().contains(theirs) || !lca(head, theirs).equals(theirs))) {
+            errorPrint("Please pull down remote changes before pushing.");
+        }
+        Remote.transfer(ObjectStore.local(), remote, head);
+        try (Transaction.Lock lock = Transaction.lock(remote.dir)) {
+            remote.refs().update(remoteBranch, theirs, head);
+            File remoteRepo = join(remote.dir, "REPO");
+            Repository other = readObject(remoteRepo, Repository.class);
+            if (remoteBranch.equals(other.branch)) {
+                other.head = head;
+                Transaction.replace(remoteRepo, Utils.serialize(other));
+            }
+        }
+    }
+
+    /** Fetches branch REMOTEBRANCH of remote REMOTENAME and merges it into
+     *  the current branch. */
+    public void pull(String remoteName, String remoteBranch) {
+        fetch(remoteName, remoteBranch);
+        merge(remoteName + "/" + remoteBranch);
+    }
+
+    /** Makes the empty current directory a clone of the current branch of
+     *  the repository whose .gitlet directory is PATH, which becomes the
+     *  remote "origin". Only the commits fewer than DEPTH steps from its
+     *  tip are copied if DEPTH is positive. Unless BLOBS, no blobs are
+     *  copied, and each is fetched from origin when first read, so only
+     *  the files checked out are fetched here. */
+    public void cloneFrom(String path, int depth, boolean blobs) {
+        if (GITLET_DIR.exists()) {
+            errorPrint("A Gitlet version-control system already exists in the current directory.");
+        }
+        String[] files = CWD.list();
+        if (files != null && files.length > 0) {
+            errorPrint("The current directory is not empty.");
+        }
+        ObjectStore remote = Remote.at(path);
+        Repository other = readObject(join(remote.dir, "REPO"), Repository.class);
+        GITLET_DIR.mkdir();
+        Config.set(Config.FORMAT_VERSION, Integer.toString(Config.CURRENT_FORMAT));
+        // the remote's indexes are read with ids as wide as its format
+        ObjectFormat.use(ObjectFormat.of(remote.dir));
+        remote = Remote.at(path);
+        Remote.add("origin", path);
+        if (!blobs) {
+            Config.set(Config.PARTIAL_CLONE, "origin");
+        }
+        Remote.transfer(remote, ObjectStore.local(), other.head, depth, blobs);
+        head = other.head;
+        branch = other.branch;
+        new Branch(branch, head).write();
+        new Branch("origin/" + branch, head).write();
+        save();
+        StatCache cache = new StatCache();
+        for (Map.Entry<String, String> entry : Commit.read(head).getBlobs().entrySet()) {
+            writeWorkingFile(entry.getKey(), entry.getValue(), cache);
+        }
+        cache.write();
+    }
+
+    /** Deletes the commits, trees and blobs that no branch, HEAD or staged
+     *  file can reach and that are older than GRACE seconds, and reports
+     *  the space reclaimed. Also packs the branches. */
+    public void gc(long grace) {
+        List<String> roots = new ArrayList<>();
+        roots.add(head);
+        roots.addAll(RefStore.local().all().values());
+        GarbageCollector collector = new GarbageCollector();
+        collector.mark(roots, new StagingArea().getBlobMap().values());
+        // no other process appends to the graph while objects go
+        try (Transaction.Lock lock = Transaction.lock(GITLET_DIR)) {
+            collector.sweep(System.currentTimeMillis() - grace * 1000);
+        }
+        RefStore.local().pack();
+        message("Removed %d objects, reclaimed %d bytes.",
+                collector.removed(), collector.reclaimed());
+    }
+
+    /** Moves every commit and blob, loose or already packed, into a single
+     *  new pack, or several past 2 GB. A blob is stored as a delta against
+     *  the previous version of the same file when that is much smaller. */
+    public void repack() {
+        // no other process appends to the graph while objects move
+        try (Transaction.Lock lock = Transaction.lock(GITLET_DIR)) {
+            repackHoldingLock();
+        }
+    }
+
+    private void repackHoldingLock() {
+        CommitGraph graph = CommitGraph.open();
+        graph.refresh();
+        Pack.Writer writer = new Pack.Writer(Pack.PACKS_DIR);
+        // fileName -> the last version of it added to the pack
+        Map<String, String> lastVersion = new HashMap<>();
+        for (int pos = 0; pos < graph.size(); pos += 1) {
+            String id = graph.id(pos);
+            byte[] bytes = Commit.readBytes(id);
+            writer.add(id, Pack.COMMIT, bytes);
+            Commit cmt = Utils.deserialize(bytes, Commit.class);
+            if (cmt.hasTree()) {
+                packTree(writer, cmt.getTree(), "", lastVersion);
+            } else {
+                for (Map.Entry<String, String> entry : cmt.getBlobs().entrySet()) {
+                    packBlob(writer, entry.getKey(), entry.getValue(), lastVersion);
+                }
+            }
+        }
+        // blobs no commit refers to yet, e.g. staged files
+        Set<String> blobIds = new TreeSet<>();
+        if (Blob.BLOB_DIR.isDirectory()) {
+            blobIds.addAll(plainFilenamesIn(Blob.BLOB_DIR));
+        }
+        for (Pack p : Pack.all()) {
+            blobIds.addAll(p.ids(Pack.BLOB));
+        }
+        for (String blobId : blobIds) {
+            if (!writer.contains(blobId)) {
+                writer.add(blobId, Pack.BLOB, Blob.getBlobByte(blobId));
+            }
+        }
+        Set<String> treeIds = new TreeSet<>();
+        if (Tree.TREES_DIR.isDirectory()) {
+            treeIds.addAll(plainFilenamesIn(Tree.TREES_DIR));
+        }
+        for (Pack p : Pack.all()) {
+            treeIds.addAll(p.ids(Pack.TREE));
+        }
+        for (String treeId : treeIds) {
+            if (!writer.contains(treeId)) {
+                writer.add(treeId, Pack.TREE, Blob.load(Tree.TREES_DIR, treeId));
+            }
+        }
+        List<File> newPacks = writer.finish();
+
+        for (Pack p : Pack.all()) {
+            if (!newPacks.contains(p.file())) {
+                p.delete();
+            }
+        }
+        Pack.reload();
+        for (int pos = 0; pos < graph.size(); pos += 1) {
+            join(Commit.COMMITS_DIR, graph.id(pos)).delete();
+        }
+        for (String blobId : blobIds) {
+            join(Blob.BLOB_DIR, blobId).delete();
+        }
+        for (String treeId : treeIds) {
+            join(Tree.TREES_DIR, treeId).delete();
+        }
+        message("Packed %d objects (%d as deltas).", writer.size(), writer.deltas());
+    }
+
+    /** Adds tree TREEID, found at PREFIX, and everything below it to
+     *  WRITER, unless it is there already. */
+    private static void packTree(Pack.Writer writer, String treeId, String prefix,
+                                 Map<String, String> lastVersion) {
+        if (writer.contains(treeId)) {
+            return;
+        }
+        writer.add(treeId, Pack.TREE, Blob.load(Tree.TREES_DIR, treeId));
+        for (Map.Entry<String, String> entry : Tree.read(treeId).entrySet()) {
+            if (entry.getKey().endsWith("/")) {
+                packTree(writer, entry.getValue(), prefix + entry.getKey(), lastVersion);
+            } else {
+                packBlob(writer, prefix + entry.getKey(), entry.getValue(), lastVersion);
+            }
+        }
+    }
+
+    /** Adds blob BLOBID, the content of FILENAME, to WRITER, as a delta
+     *  against the version of FILENAME added last if that is smaller. A
+     *  partial clone leaves out the blobs it has not fetched. */
+    private static void packBlob(Pack.Writer writer, String fileName, String blobId,
+                                 Map<String, String> lastVersion) {
+        if (Config.get(Config.PARTIAL_CLONE, null) != null && !Blob.exists(blobId)) {
+            return;
+        }
+        if (!writer.contains(blobId)) {
+            String base = lastVersion.get(fileName);
+            writer.addBlob(blobId, Blob.getBlobByte(blobId),
+                           base, base == null ? null : Blob.getBlobByte(base));
+        }
+        lastVersion.put(fileName, blobId);
+    }
+
+    /** Rewrites a repository made before the current blob format: every
+     *  blob is stored again in the new format, every commit is rewritten
+     *  to refer to the new blob ids (which changes its own id), and the
+     *  branches, HEAD and staging area are pointed at the new ids. */
+    public void migrate() {
+        if (Config.formatVersion() >= Config.CURRENT_FORMAT) {
+            errorPrint("Repository is already in the current format.");
+        }
+        CommitGraph graph = CommitGraph.open();
+        List<String> oldIds = new ArrayList<>();
+        for (int pos = 0; pos < graph.size(); pos += 1) {
+            oldIds.add(graph.id(pos));
+        }
+        // old id -> new id
+        Map<String, String> blobIds = new HashMap<>();
+        Map<String, String> cmtIds = new HashMap<>();
+        cmtIds.put("", "");
+        // graph order puts parents first
+        for (String oldId : oldIds) {
+            Commit cmt = Commit.read(oldId);
+            Map<String, String> blobs = new HashMap<>();
+            for (Map.Entry<String, String> entry : cmt.getBlobs().entrySet()) {
+                blobs.put(entry.getKey(), migrateBlob(entry.getValue(), blobIds));
+            }
+            Commit updated = new Commit(cmt.getMessage(), cmtIds.get(cmt.getParent()),
+                                        cmtIds.get(cmt.getSecondParent()), blobs,
+                                        cmt.getTimestamp());
+            cmtIds.put(oldId, updated.write());
+        }
+
+        for (String name : Branch.allBranches()) {
+            Branch br = Branch.read(name);
+            br.updateLastCommit(cmtIds.get(br.getLastCommit()));
+            br.write();
+        }
+        head = cmtIds.get(head);
+        save();
+        StagingArea stage = new StagingArea();
+        for (Map.Entry<String, String> entry : stage.getBlobMap().entrySet()) {
+            entry.setValue(migrateBlob(entry.getValue(), blobIds));
+        }
+        stage.compact();
+
+        for (String oldId : oldIds) {
+            if (!cmtIds.containsValue(oldId)) {
+                join(Commit.COMMITS_DIR, oldId).delete();
+            }
+        }
+        for (String blobId : plainFilenamesIn(Blob.BLOB_DIR)) {
+            File blob = join(Blob.BLOB_DIR, blobId);
+            if (Blob.isLegacy(blob)) {
+                blob.delete();
             }
-            Commit tmp = Commit.read(cmt2);
-            cmt2 = tmp.getParent();
         }
-        return "";
+        for (Pack p : Pack.all()) {
+            p.delete();
+        }
+        Pack.reload();
+        graph.rebuild();
+        CommitLog.open().rebuild();
+        Config.set(Config.FORMAT_VERSION, Integer.toString(Config.CURRENT_FORMAT));
+    }
+
+    /** Stores legacy blob OLDID in the current format, memoizing the new
+     *  id in IDS. */
+    private static String migrateBlob(String oldId, Map<String, String> ids) {
+        return ids.computeIfAbsent(oldId, id -> Blob.write(Blob.getBlobByte(id)));
     }
 
     // save repository status to disk.
     // bug: this function need the Repository() to creat REPO file,
     // otherwise it will cause NullPointer.
     public void save() {
-        File repo = join(GITLET_DIR, "REPO");
-        if (!repo.exists()) {
-            try {
-                repo.createNewFile();
-            } catch (IOException e) {
-//                e.printStackTrace();
-            }
-        }
-        Utils.writeObject(repo, this);
+        Transaction.write(join(GITLET_DIR, "REPO"), Utils.serialize(this));
     }
 
 
@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** Runs commands through a Server and checks that each prints what it
+ *  would without one. A Server runs every command in one JVM, so a
+ *  command must neither print to the server's own output nor see state
+ *  an earlier command left in memory.
+ *
+ *  Each step is a command, run by a new gitlet.Main process that
+ *  forwards it to the server, and the output it must print. The working
+ *  file a.txt is written before add and before diff.
+ *
+ *  Creates and removes the directory serve-test below the current one.
+ *
+ *  Usage: java gitlet.ServeTest
+ */
+public class ServeTest {
+
+    private static final File ROOT = Utils.join(Repository.CWD, "serve-test");
+
+    /** A command and the output it must print. */
+    private static final class Step {
+        final String expected;
+        final String[] args;
+
+        Step(String expected, String... args) {
+            this.expected = expected;
+            this.args = args;
+        }
+    }
+
+    private static final List<Step> STEPS = List.of(
+        new Step("", "add", "a.txt"),
+        new Step("", "commit", "a1"),
+        // the settings must be read afresh by each command
+        new Step("", "config", "core.fsync", "false"),
+        new Step("", "config", "core.verifyobjects", "true"),
+        new Step("", "add-remote", "r1", "../remote/.gitlet"),
+        new Step("core.verifyobjects must be true or false.\n",
+                 "config", "core.verifyobjects", "maybe"),
+        new Step("", "config", "gc.graceperiod", "5"),
+        // output the command writes itself, not through Main
+        new Step("diff --git a/a.txt b/a.txt\n--- a/a.txt\n+++ b/a.txt\n"
+                 + "@@ -1 +1 @@\n-a1\n+a2\n", "diff"));
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        delete(ROOT.toPath());
+        File work = Utils.join(ROOT, "work");
+        File remote = Utils.join(ROOT, "remote");
+        work.mkdirs();
+        remote.mkdirs();
+        int failures = 0;
+        Process server = null;
+        try {
+            run(remote, "init");
+            run(work, "init");
+            server = java(work, "serve");
+            while (!Utils.join(work, ".gitlet", "serve.sock").exists()) {
+                Thread.sleep(10);
+            }
+            for (Step step : STEPS) {
+                if (step.args[0].equals("diff")) {
+                    Utils.writeContents(Utils.join(work, "a.txt"), "a2\n");
+                } else if (step.args[0].equals("add")) {
+                    Utils.writeContents(Utils.join(work, "a.txt"), "a1\n");
+                }
+                String got = run(work, step.args);
+                boolean ok = got.equals(step.expected);
+                System.out.printf("%-40s %s\n", String.join(" ", step.args), ok ? "ok" : "FAILED");
+                if (!ok) {
+                    failures += 1;
+                    System.out.print("  expected: " + step.expected + "  got: " + got);
+                }
+            }
+        } finally {
+            if (server != null) {
+                run(work, "serve", "--stop");
+                server.waitFor();
+            }
+            delete(ROOT.toPath());
+        }
+        System.out.println(failures == 0 ? "All commands ran alike through the server."
+                                         : failures + " commands differed through the server.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /** Runs ARGS in DIR with gitlet.Main and returns what it printed. */
+    private static String run(File dir, String... args) throws IOException, InterruptedException {
+        Process p = java(dir, args);
+        String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        p.waitFor();
+        return out;
+    }
+
+    private static Process java(File dir, String... args) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add("gitlet.Main");
+        cmd.addAll(List.of(args));
+        return new ProcessBuilder(cmd).directory(dir).redirectErrorStream(true).start();
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : paths.sorted((a, b) -> b.compareTo(a)).collect(Collectors.toList())) {
+                Files.delete(p);
+            }
+        }
+    }
+}
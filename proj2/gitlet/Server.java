@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/** A long-running process that runs commands on one repository, started
+ *  by "gitlet serve" in the working directory of the repository, so that
+ *  scripts running many commands pay for starting a JVM, loading classes
+ *  and opening the commit graph, commit log, packs and object cache only
+ *  once.
+ *
+ *  The server listens on the Unix-domain socket .gitlet/serve.sock and
+ *  runs one command per connection, one connection at a time. A request
+ *  is a DataOutput int count of arguments, the client's working
+ *  directory as UTF, and then each argument as UTF. The reply is a
+ *  sequence of frames, each a type byte followed by an int: OUT and ERR
+ *  frames carry that many bytes of standard output or error, and the
+ *  final EXIT frame carries the exit status instead. The server points
+ *  System.out and System.err at those frames for each command, so every
+ *  command must write its output through them, looked up when it writes,
+ *  and never to the process's file descriptors.
+ *
+ *  While the socket exists, Main forwards every command to the server
+ *  through a Client, so no other process changes the repository behind
+ *  its back. "gitlet serve --stop" stops it. A command that fails with
+ *  anything but a Gitlet error also stops it, after reporting the error,
+ *  since what it has cached may no longer match the files.
+ */
+class Server {
+
+    /** The socket, relative to the working directory: socket paths are
+     *  limited to about 100 bytes. */
+    static final File SOCKET_FILE = new File(".gitlet", "serve.sock");
+
+    /** Frame types. */
+    static final byte EXIT = 0;
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+
+    /** Exit status of a command that failed unexpectedly. */
+    private static final int FAILED = 1;
+
+    /** Serves the repository in the current directory until stopped. */
+    static void serve() {
+        if (Client.isRunning()) {
+            Utils.errorPrint("A server is already running.");
+        }
+        SOCKET_FILE.delete();
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(SOCKET_FILE.toPath());
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            System.out.println("Serving " + Repository.CWD + ".");
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    // the client went away; serve the next one
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /** Runs the command sent by CLIENT, with standard output and error
+     *  sent back to it. Returns false iff the server should stop. */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(client)));
+        int argc = in.readInt();
+        String dir = in.readUTF();
+        String[] args = new String[argc];
+        for (int i = 0; i < argc; i += 1) {
+            args[i] = in.readUTF();
+        }
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream frameOut = new PrintStream(
+            new BufferedOutputStream(new FrameStream(out, OUT)), false, StandardCharsets.UTF_8);
+        PrintStream frameErr = new PrintStream(
+            new BufferedOutputStream(new FrameStream(out, ERR)), false, StandardCharsets.UTF_8);
+        System.setOut(frameOut);
+        System.setErr(frameErr);
+        int status = 0;
+        boolean running = true;
+        try {
+            if (!new File(dir).getCanonicalFile().equals(Repository.CWD.getCanonicalFile())) {
+                System.out.println("The server serves a different directory.");
+            } else if (args.length > 0 && args[0].equals("serve")) {
+                if (args.length == 2 && args[1].equals("--stop")) {
+                    running = false;
+                } else {
+                    System.out.println("A server is already running.");
+                }
+            } else {
+                Main.run(args);
+            }
+        } catch (RuntimeException excp) {
+            excp.printStackTrace();
+            status = FAILED;
+            running = false;
+        } finally {
+            frameOut.flush();
+            frameErr.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+        return running;
+    }
+
+    /** Output that wraps each write in a frame of TYPE. */
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        FrameStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            out.writeByte(type);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -1,11 +1,35 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 
+/** The files staged for addition and removal.
+ *
+ *  .gitlet/Stage holds a serialized StagingArea as of the last compaction
+ *  and .gitlet/Stage.log an append-only journal of the changes made since.
+ *  Each journal record is an operation byte (STAGE, UNSTAGE or REMOVE),
+ *  the file name and, for STAGE, the blob id, written with writeUTF.
+ *  Staging a file appends one record without reading either file; the
+ *  staging area is only loaded when it is queried. Once the journal grows
+ *  past the snapshot (and COMPACT_BYTES), the next write folds it into a
+ *  new snapshot, so the cost per operation stays constant on average.
+ *
+ *  Each record sets or clears one file in blobMap and/or removeFile, so
+ *  replaying a journal that was already folded into the snapshot (after
+ *  a crash between the two steps of a compaction) changes nothing. A torn
+ *  last record, which a command may see while another appends to the
+ *  journal, is ignored. The Transaction appends a record at the end the
+ *  journal has when the command commits, so concurrent adds all land.
+ */
 public class StagingArea implements Serializable {
+    /** Keeps existing Stage files readable, see Commit. */
+    private static final long serialVersionUID = 4799223001524038103L;
     private static final File CWD = new File(System.getProperty("user.dir"));
     // filename -> blobId
     private Map<String, String> blobMap = new java.util.HashMap<>();
@@ -13,97 +37,202 @@ public class StagingArea implements Serializable {
     private HashSet<String> removeFile = new HashSet<>();
 
     public static final File STAGE_FILE = Utils.join(Repository.GITLET_DIR, "Stage");
+    public static final File JOURNAL_FILE = Utils.join(Repository.GITLET_DIR, "Stage.log");
 
+    /** Journal operations: stage a blob for a file, drop a file from the
+     *  staging area, and stage a file for removal. */
+    private static final byte STAGE = 1;
+    private static final byte UNSTAGE = 2;
+    private static final byte REMOVE = 3;
+    /** Journal size below which it is never compacted. */
+    private static final long COMPACT_BYTES = 64 * 1024;
+
+    /** True iff blobMap and removeFile reflect the files on disk. */
+    private transient boolean loaded;
+    /** Journal records made since the last write. */
+    private transient ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    /** A staging area for the current repository. Its contents are read
+     *  the first time they are needed. */
     public StagingArea() {
-        if (!STAGE_FILE.exists()) {
-            try {
-                STAGE_FILE.createNewFile();
-                write();
-            } catch (IOException e) {
-//                e.printStackTrace();
-            }
-        }
-        blobMap = Utils.readObject(STAGE_FILE, StagingArea.class).blobMap;
-        removeFile = Utils.readObject(STAGE_FILE, StagingArea.class).removeFile;
     }
 
     public static StagingArea getStagingArea() {
-        return Utils.readObject(STAGE_FILE, StagingArea.class);
+        return new StagingArea();
     }
 
     public Map<String, String> getBlobMap() {
+        load();
         return blobMap;
     }
 
     public HashSet<String> getRemoveFile() {
+        load();
         return removeFile;
     }
 
 
     public boolean isEmpty() {
+        load();
         return blobMap.isEmpty() && removeFile.isEmpty();
     }
 
     public void clear() {
         blobMap = new java.util.HashMap<>();
         removeFile = new HashSet<>();
-        this.write();
+        loaded = true;
+        compact();
     }
 
+    /** Appends the changes made since the last write to the journal,
+     *  compacting it if it has grown too large. */
     public void write() {
-        Utils.writeObject(STAGE_FILE, this);
+        if (pending.size() == 0) {
+            return;
+        }
+        long limit = Math.max(COMPACT_BYTES, Transaction.length(STAGE_FILE));
+        if (Transaction.length(JOURNAL_FILE) + pending.size() > limit) {
+            compact();
+            return;
+        }
+        Transaction.append(JOURNAL_FILE, pending.toByteArray());
+        pending.reset();
+    }
+
+    /** Writes the whole staging area as a new snapshot and empties the
+     *  journal. Callers that change getBlobMap() or getRemoveFile()
+     *  directly must save them with this rather than write(). */
+    public void compact() {
+        load();
+        Transaction.write(STAGE_FILE, Utils.serialize(this));
+        Transaction.delete(JOURNAL_FILE);
+        pending.reset();
     }
 
     public void add(String fileName, String blobName, String head) { // blobName is hash
-        Commit headCmt = Commit.read(head); // return the content of head file
-        Map<String, String> oldBlobs = headCmt.getBlobs();
-        if (oldBlobs == null) {
-            System.out.println("Stage add warning!");
-            System.exit(0);
-        }
-        if (removeFile.contains(fileName)) {
-            removeFile.remove(fileName);
-        }
-        if (oldBlobs.getOrDefault(fileName, "").equals(blobName)) {
-            if (blobMap.containsKey(fileName)) {
-                blobMap.remove(fileName);
-            }
+        add(fileName, blobName, Commit.read(head)); // return the content of head file
+    }
+
+    /** Stages blob BLOBNAME as the content of FILENAME, or unstages it if
+     *  HEADCMT already has that content. */
+    public void add(String fileName, String blobName, Commit headCmt) {
+        // only the trees on the path to FILENAME are read
+        if (blobName.equals(headCmt.getBlob(fileName))) {
+            record(UNSTAGE, fileName, null);
         } else {  // i mess up the else, and put it in the above if, it gets trouble.
-            blobMap.put(fileName, blobName);
+            record(STAGE, fileName, blobName);
         }
 
     }
 
     public void remove(String fileName, String head) {
+        load();
         boolean flag = true; // whether delete the fileName
         if (blobMap.containsKey(fileName)) {
             flag = false;
         }
         Commit headCmt = Commit.read(head);
-        if (headCmt.getBlobs().containsKey(fileName)) {
+        if (headCmt.getBlob(fileName) != null) {
             flag = false;
-            removeFile.add(fileName);
-            Utils.restrictedDelete(fileName);
+            record(REMOVE, fileName, null);
+            Repository.deleteWorkingFile(fileName);
         }
         if (flag) {
             Utils.errorPrint("No reason to remove the file.");
         }
     }
 
+    /** Adds the operation OP on FILENAME (with BLOBID, for STAGE) to the
+     *  pending journal records, and applies it if the staging area is
+     *  loaded. */
+    private void record(byte op, String fileName, String blobId) {
+        try {
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeByte(op);
+            out.writeUTF(fileName);
+            if (op == STAGE) {
+                out.writeUTF(blobId);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (loaded) {
+            apply(op, fileName, blobId);
+        }
+    }
+
+    private void apply(byte op, String fileName, String blobId) {
+        switch (op) {
+            case STAGE:
+                removeFile.remove(fileName);
+                blobMap.put(fileName, blobId);
+                break;
+            case UNSTAGE:
+                removeFile.remove(fileName);
+                blobMap.remove(fileName);
+                break;
+            case REMOVE:
+                removeFile.add(fileName);
+                break;
+            default:
+                throw new IllegalArgumentException("bad staging journal record " + op);
+        }
+    }
+
+    /** Reads the snapshot and replays the journal and then the pending
+     *  records, unless that was done already. */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        byte[] stage = Transaction.read(STAGE_FILE);
+        if (stage != null && stage.length > 0) {
+            StagingArea snapshot = Utils.deserialize(stage, StagingArea.class);
+            blobMap = snapshot.blobMap;
+            removeFile = snapshot.removeFile;
+        }
+        byte[] journal = Transaction.read(JOURNAL_FILE);
+        if (journal != null) {
+            replay(journal);
+        }
+        replay(pending.toByteArray());
+        loaded = true;
+    }
+
+    /** Applies the complete records in JOURNAL. */
+    private void replay(byte[] journal) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(journal));
+        try {
+            while (in.available() > 0) {
+                byte op = in.readByte();
+                String fileName = in.readUTF();
+                String blobId = op == STAGE ? in.readUTF() : null;
+                apply(op, fileName, blobId);
+            }
+        } catch (IOException excp) {
+            // torn last record
+        }
+    }
+
     public String[] getStagedFiles() { // used in status
+        load();
         String[] files = blobMap.keySet().toArray(new String[0]);
         Arrays.sort(files);
         return files;
     }
 
-    public String[] getUnstagedFiles(String head) { // used in status
+    /** Returns the files whose working copy differs from HEADCMT or from
+     *  the staged version. File contents are only hashed when CACHE has
+     *  no up to date entry for them. */
+    public String[] getUnstagedFiles(Commit headCmt, StatCache cache) { // used in status
+        load();
         List<String> unstagedFiles = new ArrayList<>();
-        List<String> allFiles = Utils.plainFilenamesIn(CWD);
-        Commit headCmt = Commit.read(head);
+        Set<String> allFiles = new HashSet<>(Repository.workingFiles());
         for (String file : allFiles) {
-            File f = new File(file);
-            Blob b = new Blob(f);
-            String sha1 = Utils.sha1(Utils.serialize(b));
+            if (!headCmt.getBlobs().containsKey(file) && !blobMap.containsKey(file)) {
+                continue; // untracked, nothing to compare against
+            }
+            String sha1 = cache.hash(new File(file));
             if (headCmt.getBlobs().containsKey(file) && !blobMap.containsKey(file)) {
                 if (!sha1.equals(headCmt.getBlobs().get(file))) { // file content had been modified
                     unstagedFiles.add(file + " (modified)");
@@ -132,10 +261,10 @@ public class StagingArea implements Serializable {
     /**
      * @author luohuang
      */
-    public String[] getUntrackedFiles(String head) {
+    public String[] getUntrackedFiles(Commit headCmt) {
+        load();
         List<String> untrackedFiles = new ArrayList<>();
-        List<String> allFiles = Utils.plainFilenamesIn(CWD);
-        Commit headCmt = Commit.read(head);
+        List<String> allFiles = Repository.workingFiles();
         for (String file : allFiles) {
             if (!blobMap.containsKey(file)) {
                 if (!headCmt.getBlobs().containsKey(file)) {
@@ -0,0 +1,210 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Remembers the blob id of working files together with their size,
+ *  modification time and inode, like git's index, so that unchanged
+ *  files are not read and hashed again.
+ *
+ *  .gitlet/index holds the magic "DIRC", a version, the number of entries
+ *  and then, per file: its name, size, mtime in nanoseconds, inode and
+ *  raw blob id, as wide as the object format makes it.
+ *
+ *  A file modified in the same timestamp tick as the cache was written
+ *  may look unchanged to stat, so entries whose mtime is not older than
+ *  the mtime of .gitlet/index itself are never trusted ("racily clean"
+ *  in git's terms).
+ */
+class StatCache {
+
+    static final File INDEX_FILE = Utils.join(Repository.GITLET_DIR, "index");
+
+    /** File magic, "DIRC". */
+    private static final int MAGIC = 0x44495243;
+    private static final int VERSION = 1;
+
+    /** Stat data and blob id of one file. */
+    private static class Entry {
+        long size;
+        long mtime;
+        long inode;
+        String blobId;
+    }
+
+    /** file name -> entry */
+    private final Map<String, Entry> entries = new HashMap<>();
+    /** Modification time of the loaded cache, in nanoseconds. */
+    private long writtenAt;
+    /** True iff there are changes to write. */
+    private boolean dirty;
+
+    /** Loads the cache of the current repository; a missing or
+     *  unreadable cache is treated as empty. */
+    StatCache() {
+        if (!INDEX_FILE.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(INDEX_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            writtenAt = Files.getLastModifiedTime(INDEX_FILE.toPath()).to(TimeUnit.NANOSECONDS);
+            int n = in.readInt();
+            byte[] raw = new byte[Utils.rawUidLength()];
+            for (int i = 0; i < n; i += 1) {
+                String name = in.readUTF();
+                Entry e = new Entry();
+                e.size = in.readLong();
+                e.mtime = in.readLong();
+                e.inode = in.readLong();
+                in.readFully(raw);
+                e.blobId = Utils.toHex(raw);
+                entries.put(name, e);
+            }
+        } catch (IOException excp) {
+            entries.clear();
+        }
+    }
+
+    /** Returns the blob id of FILE if its stat data is unchanged since it
+     *  was recorded, and null otherwise. */
+    String blobId(File file) {
+        Entry e = entries.get(file.getPath());
+        if (e == null || e.mtime >= writtenAt) {
+            return null;
+        }
+        long[] st = stat(file);
+        if (st == null || st[0] != e.size || st[1] != e.mtime || st[2] != e.inode) {
+            return null;
+        }
+        return e.blobId;
+    }
+
+    /** Returns the blob id of FILE, hashing it only if its stat data
+     *  changed. */
+    String hash(File file) {
+        String id = blobId(file);
+        if (id == null) {
+            id = Blob.hash(file);
+            put(file, id);
+        }
+        return id;
+    }
+
+    /** Records that FILE, as it is now, has blob id BLOBID. */
+    void put(File file, String blobId) {
+        long[] st = stat(file);
+        if (st == null) {
+            return;
+        }
+        Entry e = new Entry();
+        e.size = st[0];
+        e.mtime = st[1];
+        e.inode = st[2];
+        e.blobId = blobId;
+        entries.put(file.getPath(), e);
+        dirty = true;
+    }
+
+    /** Forgets FILENAME. */
+    void remove(String fileName) {
+        if (entries.remove(fileName) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Forgets every file not in NAMES. */
+    void retain(Collection<String> names) {
+        Set<String> keep = new HashSet<>(names);
+        if (entries.keySet().retainAll(keep)) {
+            dirty = true;
+        }
+    }
+
+    /** Writes the cache back if it changed. */
+    void write() {
+        if (!dirty) {
+            return;
+        }
+        // a name of its own: other processes may be writing the cache too,
+        // and the last one to rename its file wins
+        File tmp;
+        try {
+            tmp = File.createTempFile("index", ".tmp", Repository.GITLET_DIR);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                Entry e = me.getValue();
+                out.writeUTF(me.getKey());
+                out.writeLong(e.size);
+                out.writeLong(e.mtime);
+                out.writeLong(e.inode);
+                out.write(Utils.fromHex(e.blobId));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+    }
+
+    /** Returns {size, mtime in nanoseconds, inode} of FILE, or null if it
+     *  is not a regular file. The inode is 0 where the platform does not
+     *  expose one. */
+    static long[] stat(File file) {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(file.toPath(),
+                    "unix:size,lastModifiedTime,ino,isRegularFile", LinkOption.NOFOLLOW_LINKS);
+            if (!(Boolean) attrs.get("isRegularFile")) {
+                return null;
+            }
+            return new long[] {(Long) attrs.get("size"),
+                               ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                               (Long) attrs.get("ino")};
+        } catch (UnsupportedOperationException excp) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (!attrs.isRegularFile()) {
+                    return null;
+                }
+                return new long[] {attrs.size(),
+                                   attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0};
+            } catch (IOException e) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
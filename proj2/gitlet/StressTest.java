@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** Runs gitlet commands from many processes at once in one repository
+ *  and checks that none of them is lost or breaks another.
+ *
+ *  WRITERS processes each make ROUNDS commits: writer I writes its own
+ *  file, adds it and commits it with message "pI-K". A commit is
+ *  acknowledged when the command prints nothing; it may instead be
+ *  refused, because another writer moved the branch or changed the stage
+ *  first, and is then tried again up to RETRIES times, as the message
+ *  says. Meanwhile READERS processes run log, status and find over and
+ *  over. Afterwards every acknowledged message must appear in the log of
+ *  master, and no command may have failed with an exception.
+ *
+ *  Creates and removes the directory stress-test below the current one.
+ *
+ *  Usage: java gitlet.StressTest [WRITERS [ROUNDS]]
+ */
+public class StressTest {
+
+    private static final File ROOT = Utils.join(Repository.CWD, "stress-test");
+    private static final int READERS = 3;
+    private static final int RETRIES = 3;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        delete(ROOT.toPath());
+        ROOT.mkdirs();
+        List<String> acknowledged = Collections.synchronizedList(new ArrayList<>());
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger refused = new AtomicInteger();
+        AtomicInteger reads = new AtomicInteger();
+        try {
+            run(null, "init");
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < writers; i += 1) {
+                int writer = i;
+                threads.add(new Thread(() -> {
+                    for (int k = 0; k < rounds; k += 1) {
+                        String message = "p" + writer + "-" + k;
+                        Utils.writeContents(Utils.join(ROOT, "p" + writer + ".txt"), message + "\n");
+                        run(failures, "add", "p" + writer + ".txt");
+                        String out = run(failures, "commit", message);
+                        for (int r = 0; r < RETRIES && out.trim().equals(Transaction.CONFLICT); r += 1) {
+                            out = run(failures, "commit", message);
+                        }
+                        if (out.isEmpty()) {
+                            acknowledged.add(message);
+                        } else {
+                            refused.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            AtomicBoolean done = new AtomicBoolean();
+            List<Thread> readers = new ArrayList<>();
+            for (int i = 0; i < READERS; i += 1) {
+                String[] command = i == 0 ? new String[] {"log"}
+                    : i == 1 ? new String[] {"status"} : new String[] {"find", "p0-0"};
+                readers.add(new Thread(() -> {
+                    while (!done.get()) {
+                        run(failures, command);
+                        reads.incrementAndGet();
+                    }
+                }));
+            }
+            readers.forEach(Thread::start);
+            threads.forEach(Thread::start);
+            for (Thread t : threads) {
+                t.join();
+            }
+            done.set(true);
+            for (Thread t : readers) {
+                t.join();
+            }
+
+            String log = run(failures, "log");
+            List<String> lost = new ArrayList<>();
+            for (String message : acknowledged) {
+                if (!log.lines().anyMatch(message::equals)) {
+                    lost.add(message);
+                }
+            }
+            System.out.printf("%d commits acknowledged, %d refused, %d reads.\n",
+                              acknowledged.size(), refused.get(), reads.get());
+            for (String failure : failures) {
+                System.out.println("Failed: " + failure);
+            }
+            for (String message : lost) {
+                System.out.println("Lost: " + message);
+            }
+            boolean ok = failures.isEmpty() && lost.isEmpty() && !acknowledged.isEmpty();
+            System.out.println(ok ? "Every acknowledged commit is reachable."
+                                  : "The repository did not survive concurrent use.");
+            System.exit(ok ? 0 : 1);
+        } finally {
+            delete(ROOT.toPath());
+        }
+    }
+
+    /** Runs ARGS in ROOT and returns what it printed. Records the command
+     *  in FAILURES, unless that is null, if it exits with an error. */
+    private static String run(List<String> failures, String... args) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add("gitlet.Main");
+        cmd.addAll(List.of(args));
+        try {
+            Process p = new ProcessBuilder(cmd).directory(ROOT).redirectErrorStream(true).start();
+            String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            if (p.waitFor() != 0 && failures != null) {
+                failures.add(String.join(" ", args) + "\n" + out);
+            }
+            return out;
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : paths.sorted((a, b) -> b.compareTo(a)).collect(Collectors.toList())) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Times staging N files of FILE_SIZE bytes, first with one add per file
+ *  (each rewriting the staging area, as add used to) and then with a
+ *  single add of all N paths.
+ *
+ *  Creates a repository in the current directory, which must not be one
+ *  already, and removes it afterwards.
+ *
+ *  Usage: java gitlet.TimeAdd
+ */
+public class TimeAdd {
+
+    /** Size of each file added. */
+    private static final int FILE_SIZE = 4096;
+    /** Directory, below the current one, holding the files added. */
+    private static final File FILE_DIR = Utils.join(Repository.CWD, "time-add");
+
+    private static void printTimingTable(List<Integer> Ns, List<Double> times,
+                                         List<Integer> opCounts) {
+        System.out.printf("%12s %12s %12s %12s\n", "N", "time (s)", "# ops", "microsec/op");
+        System.out.printf("------------------------------------------------------------\n");
+        for (int i = 0; i < Ns.size(); i += 1) {
+            int N = Ns.get(i);
+            double time = times.get(i);
+            int opCount = opCounts.get(i);
+            double timePerOp = time / opCount * 1e6;
+            System.out.printf("%12d %12.4f %12d %12.2f\n", N, time, opCount, timePerOp);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (Repository.GITLET_DIR.exists() || FILE_DIR.exists()) {
+            System.out.println("Run TimeAdd in a directory without .gitlet or time-add.");
+            return;
+        }
+        int maxN = 10000;
+        FILE_DIR.mkdir();
+        Random random = new Random(42);
+        List<String> paths = new ArrayList<>();
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < maxN; i += 1) {
+            random.nextBytes(content);
+            String path = String.format("time-add/f%05d", i);
+            Utils.writeContents(new File(path), content);
+            paths.add(path);
+        }
+
+        List<Integer> Ns = new ArrayList<>();
+        List<Double> oneByOne = new ArrayList<>();
+        List<Double> batched = new ArrayList<>();
+        try {
+            for (int n = 1250; n <= maxN; n *= 2) {
+                Ns.add(n);
+                List<String> files = paths.subList(0, n);
+
+                new Repository().init();
+                long start = System.nanoTime();
+                for (String path : files) {
+                    new Repository().add(path);
+                }
+                oneByOne.add((System.nanoTime() - start) / 1e9);
+                delete(Repository.GITLET_DIR);
+
+                new Repository().init();
+                start = System.nanoTime();
+                new Repository().add(files.toArray(new String[0]));
+                batched.add((System.nanoTime() - start) / 1e9);
+                delete(Repository.GITLET_DIR);
+            }
+        } finally {
+            delete(Repository.GITLET_DIR);
+            delete(FILE_DIR);
+        }
+        System.out.println("One add per file:");
+        printTimingTable(Ns, oneByOne, Ns);
+        System.out.println();
+        System.out.printf("One add of all files (%d threads):\n",
+                          Math.min(8, Runtime.getRuntime().availableProcessors()));
+        printTimingTable(Ns, batched, Ns);
+    }
+
+    /** Deletes FILE and everything below it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,298 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Times add, commit, status, log, checkout and merge through the
+ *  Repository API on a synthetic repository of FILES files, COMMITS
+ *  commits and BRANCHES branches.
+ *
+ *  Each command gets WARMUP untimed runs and then ITERATIONS timed ones,
+ *  one command per run, as in a JMH single-shot benchmark. Whatever a run
+ *  needs first (a changed file, a reset, a switch back to master) is
+ *  done outside the timed part. The bytes the main thread allocates
+ *  during each timed run are read from the JVM's thread allocation
+ *  counter, and reported per command and as a rate. With --json the
+ *  results are also written to FILE in the layout of JMH's JSON output,
+ *  so that tools for tracking JMH results over time can read them;
+ *  scoreError there is the standard deviation.
+ *
+ *  Creates a repository in the current directory, which must not be one
+ *  already, and removes it afterwards. Run it from a directory on tmpfs
+ *  (such as /dev/shm) to keep disk speed out of the times.
+ *
+ *  Usage: java gitlet.TimeCommands [--files N] [--commits M]
+ *                                  [--branches K] [--json FILE]
+ */
+public class TimeCommands {
+
+    /** Directory, below the current one, holding the files committed. */
+    private static final File FILE_DIR = Utils.join(Repository.CWD, "time-commands");
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 10;
+
+    /** The timed runs of one command. */
+    private static class Result {
+        final String name;
+        /** Time of each run in nanoseconds, and bytes it allocated. */
+        final long[] nanos = new long[ITERATIONS];
+        final long[] bytes = new long[ITERATIONS];
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        /** Mean time per run in microseconds. */
+        double mean() {
+            double sum = 0;
+            for (long t : nanos) {
+                sum += t;
+            }
+            return sum / nanos.length / 1e3;
+        }
+
+        /** Standard deviation of the time per run in microseconds. */
+        double stddev() {
+            double mean = mean();
+            double sum = 0;
+            for (long t : nanos) {
+                sum += (t / 1e3 - mean) * (t / 1e3 - mean);
+            }
+            return Math.sqrt(sum / Math.max(1, nanos.length - 1));
+        }
+
+        /** Bytes allocated per run. */
+        double bytesPerOp() {
+            double sum = 0;
+            for (long b : bytes) {
+                sum += b;
+            }
+            return sum / bytes.length;
+        }
+
+        /** Allocation rate in MB per second of run time. */
+        double allocRate() {
+            return bytesPerOp() / (1024 * 1024) / (mean() / 1e6);
+        }
+    }
+
+    /** A step of a benchmark run. */
+    private interface Step {
+        void run(int iteration);
+    }
+
+    public static void main(String[] args) {
+        int files = 1000;
+        int commits = 200;
+        int branches = 8;
+        String json = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--files":
+                    files = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--commits":
+                    commits = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--branches":
+                    branches = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--json":
+                    json = args[i + 1];
+                    break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        if (files < 3) {
+            System.out.println("Use at least 3 files.");
+            return;
+        }
+        if (Repository.GITLET_DIR.exists() || FILE_DIR.exists()) {
+            System.out.println("Run TimeCommands in a directory without .gitlet or time-commands.");
+            return;
+        }
+        try {
+            String store = Files.getFileStore(Repository.CWD.toPath()).type();
+            if (!store.equals("tmpfs")) {
+                System.err.println("Note: not on tmpfs (" + store + "); times include the disk.");
+            }
+        } catch (IOException excp) {
+            // the note is only advice
+        }
+
+        PrintStream out = System.out;
+        PrintStream devNull = new PrintStream(OutputStream.nullOutputStream());
+        List<Result> results = new ArrayList<>();
+        try {
+            Repository repo = new Repository();
+            build(repo, files, commits, branches);
+            // the last two files are for the merge
+            int n = files - 2;
+            int k = branches;
+
+            results.add(time("add",
+                i -> writeFile(i % n, "added in run " + i),
+                i -> repo.add(fileName(i % n))));
+            results.add(time("commit",
+                i -> {
+                    writeFile(i % n, "committed in run " + i);
+                    repo.add(fileName(i % n));
+                },
+                i -> repo.commitCommand("run " + i)));
+            System.setOut(devNull);
+            results.add(time("status", i -> { }, i -> repo.status()));
+            results.add(time("log", i -> { }, i -> repo.log()));
+            System.setOut(out);
+            if (k > 0) {
+                results.add(time("checkout",
+                    i -> {
+                        if (i > 0) {
+                            repo.checkout("master");
+                        }
+                    },
+                    i -> repo.checkout("b" + (i % k))));
+                repo.checkout("master");
+            }
+            String tip = Branch.read("master").getLastCommit();
+            results.add(time("merge", i -> repo.reset(tip), i -> repo.merge("feature")));
+        } finally {
+            System.setOut(out);
+            delete(Repository.GITLET_DIR);
+            delete(FILE_DIR);
+        }
+
+        String params = String.format("files=%d commits=%d branches=%d", files, commits, branches);
+        System.out.println(params);
+        System.out.printf("%-10s %12s %12s %14s %14s\n",
+                          "command", "us/op", "stddev", "alloc MB/s", "alloc B/op");
+        System.out.printf("----------------------------------------------------------------\n");
+        for (Result r : results) {
+            System.out.printf("%-10s %12.1f %12.1f %14.1f %14.0f\n",
+                              r.name, r.mean(), r.stddev(), r.allocRate(), r.bytesPerOp());
+        }
+        if (json != null) {
+            Utils.writeContents(new File(json), toJson(results, files, commits, branches));
+        }
+    }
+
+    /** Makes a repository of FILES files, COMMITS commits each changing
+     *  one file, and BRANCHES branches spread over that history. Then a
+     *  branch "feature" and master each get a commit changing one of the
+     *  last two files, which the add and commit runs leave alone, ready
+     *  to be merged without conflicts. */
+    private static void build(Repository repo, int files, int commits, int branches) {
+        repo.init();
+        FILE_DIR.mkdir();
+        for (int i = 0; i < files; i += 1) {
+            writeFile(i, "version 0");
+        }
+        repo.add(FILE_DIR.getName());
+        repo.commitCommand("add " + files + " files");
+        int every = Math.max(1, commits / Math.max(1, branches));
+        int made = 0;
+        for (int c = 0; c < commits; c += 1) {
+            if (c % every == 0 && made < branches) {
+                repo.creatBranch("b" + made);
+                made += 1;
+            }
+            writeFile(c % files, "version " + (c + 1));
+            repo.add(fileName(c % files));
+            repo.commitCommand("commit " + c);
+        }
+        for (; made < branches; made += 1) {
+            repo.creatBranch("b" + made);
+        }
+        repo.creatBranch("feature");
+        repo.checkout("feature");
+        writeFile(files - 1, "changed on feature");
+        repo.add(fileName(files - 1));
+        repo.commitCommand("feature");
+        repo.checkout("master");
+        writeFile(files - 2, "changed on master");
+        repo.add(fileName(files - 2));
+        repo.commitCommand("master");
+    }
+
+    /** Runs SETUP and then OP, WARMUP times and then ITERATIONS times,
+     *  timing OP in the latter. */
+    private static Result time(String name, Step setup, Step op) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Result r = new Result(name);
+        for (int i = 0; i < WARMUP + ITERATIONS; i += 1) {
+            setup.run(i);
+            long bytes = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            op.run(i);
+            long elapsed = System.nanoTime() - start;
+            bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+            if (i >= WARMUP) {
+                r.nanos[i - WARMUP] = elapsed;
+                r.bytes[i - WARMUP] = bytes;
+            }
+        }
+        return r;
+    }
+
+    /** Returns RESULTS in the layout of JMH's JSON output. */
+    private static String toJson(List<Result> results, int files, int commits, int branches) {
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i += 1) {
+            Result r = results.get(i);
+            sb.append("  {\n");
+            sb.append("    \"benchmark\" : \"gitlet.TimeCommands.").append(r.name).append("\",\n");
+            sb.append("    \"mode\" : \"ss\",\n");
+            sb.append("    \"warmupIterations\" : ").append(WARMUP).append(",\n");
+            sb.append("    \"measurementIterations\" : ").append(ITERATIONS).append(",\n");
+            sb.append(String.format("    \"params\" : { \"files\" : \"%d\", \"commits\" : \"%d\","
+                                    + " \"branches\" : \"%d\" },\n", files, commits, branches));
+            sb.append("    \"primaryMetric\" : {\n");
+            sb.append(String.format("      \"score\" : %.3f,\n", r.mean()));
+            sb.append(String.format("      \"scoreError\" : %.3f,\n", r.stddev()));
+            sb.append("      \"scoreUnit\" : \"us/op\",\n");
+            sb.append("      \"rawData\" : [ [ ");
+            for (int j = 0; j < r.nanos.length; j += 1) {
+                sb.append(j > 0 ? ", " : "").append(String.format("%.3f", r.nanos[j] / 1e3));
+            }
+            sb.append(" ] ]\n    },\n");
+            sb.append("    \"secondaryMetrics\" : {\n");
+            sb.append(String.format("      \"gc.alloc.rate\" : { \"score\" : %.3f,"
+                                    + " \"scoreUnit\" : \"MB/sec\" },\n", r.allocRate()));
+            sb.append(String.format("      \"gc.alloc.rate.norm\" : { \"score\" : %.3f,"
+                                    + " \"scoreUnit\" : \"B/op\" }\n", r.bytesPerOp()));
+            sb.append("    }\n  }").append(i + 1 < results.size() ? ",\n" : "\n");
+        }
+        return sb.append("]\n").toString();
+    }
+
+    /** Returns the path of file I, relative to the current directory. */
+    private static String fileName(int i) {
+        return FILE_DIR.getName() + "/" + String.format("f%05d.txt", i);
+    }
+
+    /** Writes file I with a line of TEXT. */
+    private static void writeFile(int i, String text) {
+        Utils.writeContents(new File(fileName(i)),
+                            ("file " + i + ": " + text + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Deletes FILE and everything below it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
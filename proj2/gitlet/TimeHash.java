@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Compares the object formats on the add path: for each format, the
+ *  throughput of Blob.hash, which add and status use to hash a working
+ *  file, and of a whole add, which also compresses and stores the blobs.
+ *  Both are measured on many small files and on a few large ones, which
+ *  are hashed through memory mappings.
+ *
+ *  A process works with the object format of one repository, so each
+ *  format is measured in a JVM of its own, started with --format NAME.
+ *  Creates a repository in the current directory, which must not be one
+ *  already, and removes it afterwards.
+ *
+ *  Usage: java gitlet.TimeHash
+ */
+public class TimeHash {
+
+    /** Directory, below the current one, holding the files hashed. */
+    private static final File FILE_DIR = Utils.join(Repository.CWD, "time-hash");
+    /** Timed passes of Blob.hash over the files, after one untimed one. */
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 2 && args[0].equals("--format")) {
+            measure(ObjectFormat.named(args[1]));
+            return;
+        }
+        if (Repository.GITLET_DIR.exists() || FILE_DIR.exists()) {
+            System.out.println("Run TimeHash in a directory without .gitlet or time-hash.");
+            return;
+        }
+        System.out.printf("%-8s %-12s %12s %12s\n", "format", "files", "hash MB/s", "add MB/s");
+        System.out.printf("------------------------------------------------\n");
+        String java = Utils.join(System.getProperty("java.home"), "bin", "java").getPath();
+        for (ObjectFormat format : ObjectFormat.values()) {
+            Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                               TimeHash.class.getName(),
+                                               "--format", format.formatName)
+                .inheritIO().start();
+            if (child.waitFor() != 0) {
+                System.out.println("Measuring " + format.formatName + " failed.");
+                return;
+            }
+        }
+    }
+
+    /** Prints the rows of FORMAT. */
+    private static void measure(ObjectFormat format) {
+        new Repository().init(format);
+        try {
+            row(format, "4 KB", 4096, 4096);
+            row(format, "1 MB", 1 << 20, 64);
+        } finally {
+            delete(Repository.GITLET_DIR);
+            delete(FILE_DIR);
+        }
+    }
+
+    /** Prints the throughput of FORMAT on N random files of SIZE bytes,
+     *  described by LABEL. */
+    private static void row(ObjectFormat format, String label, int size, int n) {
+        FILE_DIR.mkdir();
+        Random random = new Random(42);
+        byte[] content = new byte[size];
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            random.nextBytes(content);
+            File file = Utils.join(FILE_DIR, String.format("f%05d", i));
+            Utils.writeContents(file, content);
+            files.add(file);
+        }
+        double megabytes = (double) size * n / (1 << 20);
+
+        for (File file : files) {
+            Blob.hash(file);
+        }
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r += 1) {
+            for (File file : files) {
+                Blob.hash(file);
+            }
+        }
+        double hashTime = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        new Repository().add(FILE_DIR.getName());
+        double addTime = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%-8s %-12s %12.1f %12.1f\n", format.formatName,
+                          n + " x " + label, megabytes * ROUNDS / hashTime, megabytes / addTime);
+        delete(FILE_DIR);
+    }
+
+    /** Deletes FILE and everything below it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,74 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Times MergeBase.find on linear histories of growing length whose two
+ *  branches diverged DIVERGENCE commits ago. The time per search should
+ *  stay flat as N grows.
+ *
+ *  Usage: java gitlet.TimeLca
+ */
+public class TimeLca {
+
+    /** Commits on each branch after the split point. */
+    private static final int DIVERGENCE = 20;
+    /** Searches timed for each history length. */
+    private static final int OPS = 2000;
+
+    private static void printTimingTable(List<Integer> Ns, List<Double> times,
+                                         List<Integer> opCounts) {
+        System.out.printf("%12s %12s %12s %12s\n", "N", "time (s)", "# ops", "microsec/op");
+        System.out.printf("------------------------------------------------------------\n");
+        for (int i = 0; i < Ns.size(); i += 1) {
+            int N = Ns.get(i);
+            double time = times.get(i);
+            int opCount = opCounts.get(i);
+            double timePerOp = time / opCount * 1e6;
+            System.out.printf("%12d %12.4f %12d %12.2f\n", N, time, opCount, timePerOp);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Integer> Ns = new ArrayList<>();
+        List<Double> times = new ArrayList<>();
+        List<Integer> ops = new ArrayList<>();
+        for (int n = 1000; n <= 128000; n *= 2) {
+            File file = File.createTempFile("commit-graph", null);
+            file.delete();
+            CommitGraph graph = new CommitGraph(file);
+            String prev = "";
+            for (int i = 0; i < n; i += 1) {
+                String id = Utils.hash("trunk", Integer.toString(i));
+                graph.add(id, prev, "", i);
+                prev = id;
+            }
+            String left = prev;
+            String right = prev;
+            for (int i = 0; i < DIVERGENCE; i += 1) {
+                String l = Utils.hash("left", Integer.toString(i));
+                String r = Utils.hash("right", Integer.toString(i));
+                graph.add(l, left, "", n + i);
+                graph.add(r, right, "", n + i);
+                left = l;
+                right = r;
+            }
+            int a = graph.position(left);
+            int b = graph.position(right);
+            MergeBase.find(graph, a, b);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < OPS; i += 1) {
+                MergeBase.find(graph, a, b);
+            }
+            Ns.add(n);
+            times.add((System.nanoTime() - start) / 1e9);
+            ops.add(OPS);
+            file.delete();
+            new File(file.getPath() + ".idx").delete(); // written by its CommitIndex
+        }
+        printTimingTable(Ns, times, ops);
+    }
+}
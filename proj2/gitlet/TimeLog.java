@@ -0,0 +1,121 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** Times log over histories of up to 10000 commits, printing to a null
+ *  stream. log itself reads .gitlet/commit-log; for comparison the same
+ *  history is also printed by reading every commit object, with its id
+ *  known from the read, with core.verifyobjects on, and with the id
+ *  recomputed by serializing and hashing the commit, as Commit.toString
+ *  used to.
+ *
+ *  Creates a repository in the current directory, which must not be one
+ *  already, and removes it afterwards.
+ *
+ *  Usage: java gitlet.TimeLog
+ */
+public class TimeLog {
+
+    private static void printTimingTable(List<Integer> Ns, List<Double> times,
+                                         List<Integer> opCounts) {
+        System.out.printf("%12s %12s %12s %12s\n", "N", "time (s)", "# ops", "microsec/op");
+        System.out.printf("------------------------------------------------------------\n");
+        for (int i = 0; i < Ns.size(); i += 1) {
+            int N = Ns.get(i);
+            double time = times.get(i);
+            int opCount = opCounts.get(i);
+            double timePerOp = time / opCount * 1e6;
+            System.out.printf("%12d %12.4f %12d %12.2f\n", N, time, opCount, timePerOp);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (Repository.GITLET_DIR.exists()) {
+            System.out.println("Run TimeLog in a directory without .gitlet.");
+            return;
+        }
+        PrintStream out = System.out;
+        PrintStream devNull = new PrintStream(OutputStream.nullOutputStream());
+        List<Integer> Ns = new ArrayList<>();
+        List<Double> fromLog = new ArrayList<>();
+        List<Double> cached = new ArrayList<>();
+        List<Double> verified = new ArrayList<>();
+        List<Double> rehashed = new ArrayList<>();
+        try {
+            new Repository().init();
+            String tree = Tree.update(null, new HashMap<>());
+            String head = Branch.read("master").getLastCommit();
+            int made = 0;
+            for (int n = 1250; n <= 10000; n *= 2) {
+                for (; made < n; made += 1) {
+                    head = new Commit("commit " + made, head, "", tree).write();
+                }
+                new Repository().reset(head);
+                Ns.add(n);
+
+                System.setOut(devNull);
+                new Repository().log(); // warm up
+                long start = System.nanoTime();
+                new Repository().log();
+                fromLog.add((System.nanoTime() - start) / 1e9);
+
+                cached.add(walk(head, false));
+                Config.set(Config.VERIFY_OBJECTS, "true");
+                verified.add(walk(head, false));
+                Config.set(Config.VERIFY_OBJECTS, "false");
+                rehashed.add(walk(head, true));
+                System.setOut(out);
+            }
+        } finally {
+            System.setOut(out);
+            delete(Repository.GITLET_DIR);
+        }
+        System.out.println("log (from .gitlet/commit-log):");
+        printTimingTable(Ns, fromLog, Ns);
+        System.out.println();
+        System.out.println("reading each commit, id known from the read:");
+        printTimingTable(Ns, cached, Ns);
+        System.out.println();
+        System.out.println("reading each commit with core.verifyobjects:");
+        printTimingTable(Ns, verified, Ns);
+        System.out.println();
+        System.out.println("reading each commit, serializing and hashing it for its id:");
+        printTimingTable(Ns, rehashed, Ns);
+    }
+
+    /** Prints the first-parent history of HEAD by reading each commit,
+     *  recomputing its id if REHASH, and returns the time taken in
+     *  seconds. */
+    private static double walk(String head, boolean rehash) {
+        long start = System.nanoTime();
+        CommitGraph graph = CommitGraph.open();
+        for (int pos = graph.position(head); pos != CommitGraph.NONE;
+             pos = graph.parent1(pos)) {
+            Commit cmt = Commit.read(graph.id(pos));
+            if (rehash) {
+                System.out.println(Commit.format(Utils.hash((Object) Utils.serialize(cmt)),
+                    cmt.getParent(), cmt.getSecondParent(), cmt.getTimestamp(),
+                    cmt.getMessage()));
+            } else {
+                System.out.println(cmt.toString());
+            }
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /** Deletes FILE and everything below it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,131 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Times a scripted workload of N commands (an add of a changed file,
+ *  with a commit after every tenth) run three ways: one gitlet.Main
+ *  process per command, one gitlet.Client process per command talking to
+ *  a Server, and the same requests sent to the Server from this process,
+ *  as a script in a long-running language would.
+ *
+ *  Creates a repository in the current directory, which must not be one
+ *  already, and removes it afterwards.
+ *
+ *  Usage: java gitlet.TimeServe
+ */
+public class TimeServe {
+
+    private static final File FILE = Utils.join(Repository.CWD, "time-serve.txt");
+
+    private static void printTimingTable(List<Integer> Ns, List<Double> times,
+                                         List<Integer> opCounts) {
+        System.out.printf("%12s %12s %12s %12s\n", "N", "time (s)", "# ops", "microsec/op");
+        System.out.printf("------------------------------------------------------------\n");
+        for (int i = 0; i < Ns.size(); i += 1) {
+            int N = Ns.get(i);
+            double time = times.get(i);
+            int opCount = opCounts.get(i);
+            double timePerOp = time / opCount * 1e6;
+            System.out.printf("%12d %12.4f %12d %12.2f\n", N, time, opCount, timePerOp);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (Repository.GITLET_DIR.exists() || FILE.exists()) {
+            System.out.println("Run TimeServe in a directory without .gitlet or time-serve.txt.");
+            return;
+        }
+        List<Integer> Ns = new ArrayList<>();
+        List<Double> perProcess = new ArrayList<>();
+        List<Double> client = new ArrayList<>();
+        List<Double> inProcess = new ArrayList<>();
+        try {
+            for (int n = 25; n <= 100; n *= 2) {
+                Ns.add(n);
+                perProcess.add(run(n, "gitlet.Main", false));
+                client.add(run(n, "gitlet.Client", true));
+                inProcess.add(run(n, null, true));
+            }
+        } finally {
+            delete(Repository.GITLET_DIR);
+            FILE.delete();
+        }
+        System.out.println("One gitlet.Main process per command:");
+        printTimingTable(Ns, perProcess, Ns);
+        System.out.println();
+        System.out.println("One gitlet.Client process per command, with a server:");
+        printTimingTable(Ns, client, Ns);
+        System.out.println();
+        System.out.println("Requests sent to the server from this process:");
+        printTimingTable(Ns, inProcess, Ns);
+    }
+
+    /** Returns the seconds taken by N commands in a new repository, each
+     *  run by a new process running class MAINCLASS, or by this process
+     *  if MAINCLASS is null. Starts a server first if SERVE. */
+    private static double run(int n, String mainClass, boolean serve)
+        throws IOException, InterruptedException {
+        // a separate process, so this one never opens the repository
+        java("gitlet.Main", "init").waitFor();
+        Process server = null;
+        if (serve) {
+            server = java("gitlet.Main", "serve");
+            while (!Client.isRunning()) {
+                Thread.sleep(10);
+            }
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i += 1) {
+            Utils.writeContents(FILE, "version " + i + "\n");
+            command(mainClass, "add", FILE.getName());
+            if (i % 10 == 9) {
+                command(mainClass, "commit", "version " + i);
+            }
+        }
+        double time = (System.nanoTime() - start) / 1e9;
+        if (server != null) {
+            Client.forward(new String[] {"serve", "--stop"});
+            server.waitFor();
+        }
+        delete(Repository.GITLET_DIR);
+        return time;
+    }
+
+    /** Runs command ARGS through a new process running MAINCLASS, or
+     *  through the server if MAINCLASS is null. */
+    private static void command(String mainClass, String... args)
+        throws IOException, InterruptedException {
+        if (mainClass == null) {
+            Client.forward(args);
+        } else {
+            java(mainClass, args).waitFor();
+        }
+    }
+
+    /** Starts a JVM running class MAINCLASS with ARGS, with this
+     *  process's class path and working directory. */
+    private static Process java(String mainClass, String... args) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(mainClass);
+        cmd.addAll(List.of(args));
+        return new ProcessBuilder(cmd).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                                      .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    /** Deletes FILE and everything below it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
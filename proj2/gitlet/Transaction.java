@@ -0,0 +1,592 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/** The writes of one command, made crash-safe as a group.
+ *
+ *  Objects (blobs, trees and commits) are written to temporary files and
+ *  renamed into place as they are made, as before: nothing refers to
+ *  them yet, so a crash only leaves garbage. The files they went to, and
+ *  the append-only commit graph and log, are remembered. Writes to refs
+ *  (branches, REPO, the staging area and its journal) are held back and
+ *  only read back through read().
+ *
+ *  commit() then:
+ *
+ *   1. syncs every object file written, and their directories, in one
+ *      batch (unless core.fsync is "false");
+ *   2. writes all held ref writes to .gitlet/txn and syncs it: this is
+ *      the point at which the command happens;
+ *   3. applies each ref write, replacing files by atomic renames;
+ *   4. deletes .gitlet/txn.
+ *
+ *  .gitlet/txn holds the magic "GTXN", a version, the number of writes
+ *  and each write: an op byte, the path below .gitlet as UTF, for APPEND
+ *  an offset, and then the content as an int length and bytes. A CRC-32
+ *  of all that ends the file. The next command to start finds a complete
+ *  .gitlet/txn left by a crash and applies it again, which is harmless
+ *  since every write is idempotent, or drops it if it is torn. So after
+ *  a crash the refs are either all as before the command or all as
+ *  after it, and never point at an object that is not fully written.
+ *
+ *  Several processes may work on a repository at once. Commands read
+ *  refs without locking: objects never change, and every ref file is
+ *  replaced whole, by writing FILE.lock and renaming it over FILE. Steps
+ *  2 to 4 run holding the lock of the repository, an OS lock on
+ *  .gitlet/txn.lock that the system drops if its holder dies. Holding
+ *  it, commit() first checks that every ref file the command is about
+ *  to write still has the content the command read, and gives up with
+ *  CONFLICT otherwise, writing no ref: a command that read a branch
+ *  can never overwrite a commit another command added to it meanwhile.
+ *  Appends to files the command did not read (staging a file) are moved
+ *  to the end the file has by then. A reader finding .gitlet/txn only
+ *  recovers it if the lock is free, so readers never wait.
+ *
+ *  Without a transaction (as in benchmarks that call Repository
+ *  directly) every write happens at once, still by atomic rename.
+ *
+ *  For testing, when the environment variable GITLET_CRASH_AT names one
+ *  of the CRASH_POINTS the process halts there with status CRASH_STATUS.
+ */
+class Transaction {
+
+    static final File JOURNAL_FILE = Utils.join(Repository.GITLET_DIR, "txn");
+    /** Where a journal that could not be applied is kept. */
+    static final File FAILED_FILE = Utils.join(Repository.GITLET_DIR, "txn.failed");
+    /** Name of the lock file of a repository, in its .gitlet directory. */
+    static final String LOCK_NAME = "txn.lock";
+    /** Reported when another command wrote a ref this one read. */
+    static final String CONFLICT = "The repository was changed by another command; try again.";
+
+    /** Where a test may ask commit() to halt: after syncing objects,
+     *  halfway through writing the journal, after writing it, after
+     *  applying the first ref write, and after applying them all. */
+    static final String[] CRASH_POINTS = {"objects", "torn-journal", "journal", "refs", "done"};
+    /** Exit status of a process halted at a crash point. */
+    static final int CRASH_STATUS = 86;
+
+    /** Syncs objects and the journal when not "false". */
+    static final String FSYNC = "core.fsync";
+
+    /** File magic, "GTXN". */
+    private static final int MAGIC = 0x4754584e;
+    private static final int VERSION = 1;
+
+    private static final byte REPLACE = 1;
+    private static final byte APPEND = 2;
+    private static final byte DELETE = 3;
+
+    /** A held write to one file. */
+    private static final class Write {
+        final byte op;
+        /** Offset of an APPEND. */
+        final long offset;
+        /** New content, or appended bytes; null for DELETE. */
+        final byte[] content;
+
+        Write(byte op, long offset, byte[] content) {
+            this.op = op;
+            this.offset = offset;
+            this.content = content;
+        }
+    }
+
+    /** The transaction of the running command, or null. */
+    private static Transaction current;
+
+    /** Files whose content must be durable before refs move. */
+    private final Set<File> written = new LinkedHashSet<>();
+    /** Held ref writes, by file, in the order first made. */
+    private final Map<File, Write> refs = new LinkedHashMap<>();
+    /** Content of each ref file when the command first read it, null
+     *  if it did not exist. */
+    private final Map<File, byte[]> seen = new HashMap<>();
+
+    /** A hold on the lock of a repository, released by close(). */
+    static final class Lock implements AutoCloseable {
+        private final FileChannel channel;
+        private final FileLock lock;
+
+        private Lock(FileChannel channel, FileLock lock) {
+            this.channel = channel;
+            this.lock = lock;
+        }
+
+        @Override
+        public void close() {
+            try {
+                lock.release();
+                channel.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Starts the transaction of a command, first finishing or dropping
+     *  one left by a crash. */
+    static void begin() {
+        recover();
+        current = new Transaction();
+    }
+
+    /** Makes the writes of the current transaction, if any, take effect. */
+    static void commit() {
+        Transaction txn = current;
+        current = null;
+        if (txn != null) {
+            txn.finish();
+        }
+    }
+
+    /** Drops the ref writes of the current transaction. */
+    static void abort() {
+        current = null;
+    }
+
+    /** Notes that object file FILE has been written. */
+    static void wrote(File file) {
+        if (current != null) {
+            current.written.add(file);
+        }
+    }
+
+    /** Waits until no other process holds the lock of the repository
+     *  whose .gitlet directory is DIR, and takes it. Writes to the commit
+     *  graph and log, and to refs, are made holding it. */
+    static Lock lock(File dir) {
+        FileChannel ch = lockChannel(dir);
+        try {
+            return new Lock(ch, ch.lock());
+        } catch (IOException excp) {
+            closeQuietly(ch);
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Takes the lock of the repository whose .gitlet directory is DIR if
+     *  it is free, and returns null otherwise. */
+    static Lock tryLock(File dir) {
+        FileChannel ch = lockChannel(dir);
+        try {
+            FileLock lock = ch.tryLock();
+            if (lock == null) {
+                ch.close();
+                return null;
+            }
+            return new Lock(ch, lock);
+        } catch (IOException excp) {
+            closeQuietly(ch);
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static FileChannel lockChannel(File dir) {
+        try {
+            return FileChannel.open(Utils.join(dir, LOCK_NAME).toPath(),
+                                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void closeQuietly(FileChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException excp) {
+            // already failing
+        }
+    }
+
+    /** Replaces the content of ref file FILE with CONTENT. */
+    static void write(File file, byte[] content) {
+        if (current == null) {
+            replace(file, content);
+        } else {
+            current.refs.put(file, new Write(REPLACE, 0, content));
+        }
+    }
+
+    /** Appends CONTENT to ref file FILE. */
+    static void append(File file, byte[] content) {
+        if (current == null) {
+            apply(file, new Write(APPEND, file.length(), content));
+            return;
+        }
+        Write old = current.refs.get(file);
+        if (old == null || old.op == DELETE) {
+            long at = old == null ? file.length() : 0;
+            current.refs.put(file, new Write(old == null ? APPEND : REPLACE, at, content));
+        } else {
+            byte[] joined = Arrays.copyOf(old.content, old.content.length + content.length);
+            System.arraycopy(content, 0, joined, old.content.length, content.length);
+            current.refs.put(file, new Write(old.op, old.offset, joined));
+        }
+    }
+
+    /** Deletes ref file FILE. */
+    static void delete(File file) {
+        if (current == null) {
+            apply(file, new Write(DELETE, 0, null));
+        } else {
+            current.refs.put(file, new Write(DELETE, 0, null));
+        }
+    }
+
+    /** Returns the content of ref file FILE, with the writes held by the
+     *  current transaction, or null if it does not exist. */
+    static byte[] read(File file) {
+        Write w = current == null ? null : current.refs.get(file);
+        if (w != null && w.op != APPEND) {
+            return w.content;
+        }
+        byte[] content = readFile(file);
+        if (current != null && !current.seen.containsKey(file)) {
+            current.seen.put(file, content);
+        }
+        if (w == null) {
+            return content;
+        }
+        byte[] joined = Arrays.copyOf(content == null ? new byte[0] : content,
+                                      (int) w.offset + w.content.length);
+        System.arraycopy(w.content, 0, joined, (int) w.offset, w.content.length);
+        return joined;
+    }
+
+    /** Returns the content of FILE, or null if it is not a file. A
+     *  command committing meanwhile may delete it, as compacting the
+     *  staging area deletes Stage.log, so that is not checked first. */
+    private static byte[] readFile(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException excp) {
+            if (!file.isFile()) {
+                return null; // gone, or never there
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Notes that the command read CONTENT (null if there was none) from
+     *  ref file FILE other than through read(), from a copy it keeps. */
+    static void saw(File file, byte[] content) {
+        if (current != null && !current.seen.containsKey(file)) {
+            current.seen.put(file, content);
+        }
+    }
+
+    /** Returns true iff the current transaction holds a write to FILE. */
+    static boolean holds(File file) {
+        return current != null && current.refs.containsKey(file);
+    }
+
+    /** Returns the length of ref file FILE, as read() would return it. */
+    static long length(File file) {
+        if (current == null || !current.refs.containsKey(file)) {
+            return file.length();
+        }
+        byte[] content = read(file);
+        return content == null ? 0 : content.length;
+    }
+
+    private void finish() {
+        crashPoint("objects", () -> sync(written));
+        if (refs.isEmpty()) {
+            return;
+        }
+        try (Lock lock = lock(Repository.GITLET_DIR)) {
+            replayJournal();
+            rebase();
+            checkWritable();
+            byte[] journal = encode();
+            if ("torn-journal".equals(System.getenv("GITLET_CRASH_AT"))) {
+                writeJournal(Arrays.copyOf(journal, journal.length / 2));
+                Runtime.getRuntime().halt(CRASH_STATUS);
+            }
+            crashPoint("journal", () -> writeJournal(journal));
+            boolean first = true;
+            for (Map.Entry<File, Write> e : refs.entrySet()) {
+                apply(e.getKey(), e.getValue());
+                if (first) {
+                    crashPoint("refs", () -> { });
+                    first = false;
+                }
+            }
+            crashPoint("done", () -> { });
+            JOURNAL_FILE.delete();
+        }
+    }
+
+    /** Fails, before anything is journaled, if a ref write could not be
+     *  applied: if FILE is a directory, or a file is where a directory of
+     *  its path should be. A journal holding such a write would fail the
+     *  same way each time the next command replayed it. */
+    private void checkWritable() {
+        for (Map.Entry<File, Write> e : refs.entrySet()) {
+            File file = e.getKey();
+            if (e.getValue().op == DELETE) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                throw Utils.error("Cannot write %s: it is a directory.", file.getPath());
+            }
+            File dir = file.getParentFile();
+            while (dir != null && !dir.exists()) {
+                dir = dir.getParentFile(); // made when the write is applied
+            }
+            if (dir != null && !dir.isDirectory()) {
+                throw Utils.error("Cannot write %s: %s is not a directory.",
+                                  file.getPath(), dir.getPath());
+            }
+        }
+    }
+
+    /** Fails with CONFLICT if a ref file to be written no longer has the
+     *  content the command read, and moves each append to a file it did
+     *  not read to the current end of that file. */
+    private void rebase() {
+        for (Map.Entry<File, Write> e : refs.entrySet()) {
+            File file = e.getKey();
+            Write w = e.getValue();
+            if (seen.containsKey(file)) {
+                byte[] now = readFile(file);
+                if (!Arrays.equals(now, seen.get(file))) {
+                    throw Utils.error(CONFLICT);
+                }
+            } else if (w.op == APPEND) {
+                e.setValue(new Write(APPEND, file.length(), w.content));
+            }
+        }
+    }
+
+    /** Runs STEP, then halts if the test crash point is NAME. */
+    private static void crashPoint(String name, Runnable step) {
+        step.run();
+        if (name.equals(System.getenv("GITLET_CRASH_AT"))) {
+            Runtime.getRuntime().halt(CRASH_STATUS);
+        }
+    }
+
+    /** Returns the journal of the held ref writes. */
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(refs.size());
+            String base = Repository.GITLET_DIR.getPath() + File.separator;
+            for (Map.Entry<File, Write> e : refs.entrySet()) {
+                Write w = e.getValue();
+                out.writeByte(w.op);
+                out.writeUTF(e.getKey().getPath().substring(base.length()));
+                if (w.op == APPEND) {
+                    out.writeLong(w.offset);
+                }
+                if (w.op != DELETE) {
+                    out.writeInt(w.content.length);
+                    out.write(w.content);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Writes and syncs JOURNAL as .gitlet/txn. */
+    private static void writeJournal(byte[] journal) {
+        try (FileOutputStream out = new FileOutputStream(JOURNAL_FILE)) {
+            out.write(journal);
+            if (fsync()) {
+                out.getChannel().force(true);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (fsync()) {
+            syncDirectory(Repository.GITLET_DIR);
+        }
+    }
+
+    /** Recovers a .gitlet/txn left by a crash, unless another process
+     *  holds the lock of the repository: it is then committing, and
+     *  recovers any journal itself first. */
+    private static void recover() {
+        if (!JOURNAL_FILE.isFile()) {
+            return;
+        }
+        try (Lock lock = tryLock(Repository.GITLET_DIR)) {
+            if (lock != null) {
+                replayJournal();
+            }
+        }
+    }
+
+    /** Applies a .gitlet/txn left by a crash if it is complete, and
+     *  deletes it either way. Called holding the lock. A journal that
+     *  cannot be applied is reported and moved to FAILED_FILE, so that it
+     *  does not stop every later command. */
+    private static void replayJournal() {
+        if (!JOURNAL_FILE.isFile()) {
+            return;
+        }
+        byte[] journal = Utils.readContents(JOURNAL_FILE);
+        if (journal.length >= 8) {
+            CRC32 crc = new CRC32();
+            crc.update(journal, 0, journal.length - 8);
+            long stored = 0;
+            for (int i = journal.length - 8; i < journal.length; i += 1) {
+                stored = (stored << 8) | (journal[i] & 0xff);
+            }
+            if (crc.getValue() == stored) {
+                try {
+                    replay(journal);
+                } catch (IllegalArgumentException excp) {
+                    FAILED_FILE.delete();
+                    JOURNAL_FILE.renameTo(FAILED_FILE);
+                    System.err.printf("Could not finish an interrupted command (%s); its "
+                                      + "journal was moved to %s.%n",
+                                      excp.getMessage(), FAILED_FILE.getPath());
+                    return;
+                }
+            }
+        }
+        JOURNAL_FILE.delete();
+    }
+
+    private static void replay(byte[] journal) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(journal))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i += 1) {
+                byte op = in.readByte();
+                File file = Utils.join(Repository.GITLET_DIR, in.readUTF());
+                long offset = op == APPEND ? in.readLong() : 0;
+                byte[] content = null;
+                if (op != DELETE) {
+                    content = new byte[in.readInt()];
+                    in.readFully(content);
+                }
+                apply(file, new Write(op, offset, content));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Makes write W to FILE. */
+    private static void apply(File file, Write w) {
+        switch (w.op) {
+            case REPLACE:
+                replace(file, w.content);
+                break;
+            case APPEND:
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.seek(w.offset);
+                    raf.write(w.content);
+                    raf.setLength(w.offset + w.content.length);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                break;
+            default:
+                deleteBelow(file, topOf(file));
+        }
+    }
+
+    /** Returns the directory of .gitlet holding FILE, such as branches,
+     *  or FILE itself if it is directly in .gitlet. */
+    private static File topOf(File file) {
+        File top = file;
+        while (top.getParentFile() != null
+               && !top.getParentFile().equals(Repository.GITLET_DIR)) {
+            top = top.getParentFile();
+        }
+        return top;
+    }
+
+    /** Deletes FILE, and then each directory below TOP that this leaves
+     *  empty, as branches/origin once its last loose ref is gone. A new
+     *  ref could not be written over such a directory. */
+    static void deleteBelow(File file, File top) {
+        file.delete();
+        File dir = file.getParentFile();
+        while (dir != null && !dir.equals(top) && !file.equals(top) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
+    /** Replaces the content of FILE with CONTENT by writing FILE.lock
+     *  and renaming it over FILE, at once. Callers hold the lock of the
+     *  repository, except where a single process uses it. Also used by
+     *  push for the refs of the remote repository, which no transaction
+     *  of this one covers. */
+    static void replace(File file, byte[] content) {
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getPath() + ".lock");
+        Utils.writeContents(tmp, content);
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Syncs FILES and then each directory holding them. */
+    static void sync(Set<File> files) {
+        if (files.isEmpty() || !fsync()) {
+            return;
+        }
+        Set<File> dirs = new LinkedHashSet<>();
+        for (File file : files) {
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ch.force(true);
+            } catch (IOException excp) {
+                continue; // deleted since, by repack for instance
+            }
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            syncDirectory(dir);
+        }
+    }
+
+    /** Syncs the entries of DIR, where the platform allows it. */
+    private static void syncDirectory(File dir) {
+        try (FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            // not supported for directories on every platform
+        }
+    }
+
+    private static boolean fsync() {
+        return !"false".equals(Config.get(FSYNC, "true"));
+    }
+}
@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The snapshot of one directory, stored in .gitlet/trees like a blob.
+ *
+ *  A tree is stored as the deflated bytes of "tree LENGTH\0" followed by
+ *  one entry per file or subdirectory: its mode ("100644" for a file,
+ *  "40000" for a directory), a space, its name, a 0 byte and the raw id
+ *  of its blob or tree, as wide as the object format makes it. Entries
+ *  are sorted as git sorts them, with directory names compared as if
+ *  they ended in "/", so a tree has the same id git would give it.
+ *
+ *  In memory the entries of a tree are a sorted map from name to id in
+ *  which directory names do end in "/". Paths below the root use "/" as
+ *  separator.
+ *
+ *  A commit that changes a few files only rewrites the trees on the way
+ *  to them; every other subtree keeps its id and is shared with the
+ *  parent commit. Comparing two trees likewise skips every subtree whose
+ *  id is the same on both sides.
+ */
+class Tree {
+
+    static final File TREES_DIR = Utils.join(Repository.GITLET_DIR, "trees");
+
+    private static final String FILE_MODE = "100644";
+    private static final String DIR_MODE = "40000";
+
+    /** Returns the entries of tree ID. */
+    static SortedMap<String, String> read(String id) {
+        return parse(Blob.load(TREES_DIR, id));
+    }
+
+    /** Returns the entries of a tree with the stored CONTENT. */
+    static SortedMap<String, String> parse(byte[] content) {
+        SortedMap<String, String> entries = new TreeMap<>();
+        int idSize = Utils.rawUidLength();
+        int pos = 0;
+        while (pos < content.length) {
+            int space = indexOf(content, (byte) ' ', pos);
+            int nul = indexOf(content, (byte) 0, space);
+            String mode = new String(content, pos, space - pos, StandardCharsets.UTF_8);
+            String name = new String(content, space + 1, nul - space - 1,
+                                     StandardCharsets.UTF_8);
+            String child = Utils.toHex(Arrays.copyOfRange(content, nul + 1, nul + 1 + idSize));
+            entries.put(mode.equals(DIR_MODE) ? name + "/" : name, child);
+            pos = nul + 1 + idSize;
+        }
+        return entries;
+    }
+
+    /** Stores the tree with ENTRIES, unless it is stored already, and
+     *  returns its id. */
+    static String write(SortedMap<String, String> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            String name = e.getKey();
+            boolean dir = name.endsWith("/");
+            if (dir) {
+                name = name.substring(0, name.length() - 1);
+            }
+            out.writeBytes(((dir ? DIR_MODE : FILE_MODE) + " " + name)
+                           .getBytes(StandardCharsets.UTF_8));
+            out.write(0);
+            out.writeBytes(Utils.fromHex(e.getValue()));
+        }
+        byte[] content = out.toByteArray();
+        String id = Utils.hash("tree " + content.length + "\0", content);
+        if (Utils.join(TREES_DIR, id).exists() || Pack.has(id)) {
+            return id;
+        }
+        return Blob.store(TREES_DIR, "tree", new ByteArrayInputStream(content), content.length);
+    }
+
+    /** Returns the id of the tree holding the files of tree ID (none if
+     *  ID is null) with CHANGES applied. CHANGES maps paths to their new
+     *  blob id, or to null for paths to delete. Only the trees on the way
+     *  to a changed path are read and written. */
+    static String update(String id, Map<String, String> changes) {
+        String result = updateDir(id, changes);
+        return result == null ? write(new TreeMap<>()) : result;
+    }
+
+    /** Returns the blob id of PATH below tree ID, or null if there is no
+     *  such file. */
+    static String lookup(String id, String path) {
+        int slash = path.indexOf('/');
+        while (id != null && slash >= 0) {
+            id = read(id).get(path.substring(0, slash + 1));
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        return id == null ? null : read(id).get(path);
+    }
+
+    /** Returns the files below tree ID, as path -> blob id. */
+    static Map<String, String> files(String id) {
+        Map<String, String> files = new HashMap<>();
+        addFiles(id, "", files);
+        return files;
+    }
+
+    /** Returns the paths whose blob differs between tree A and tree B
+     *  (either may be null for an empty tree), each mapped to its blob id
+     *  in A and in B, null where it is missing. Subtrees with the same id
+     *  on both sides are not read. */
+    static SortedMap<String, String[]> diff(String a, String b) {
+        SortedMap<String, String[]> changes = new TreeMap<>();
+        diff(a, b, "", changes);
+        return changes;
+    }
+
+    /** Like update, but returns null instead of an empty tree. */
+    private static String updateDir(String id, Map<String, String> changes) {
+        SortedMap<String, String> old = id == null ? new TreeMap<>() : read(id);
+        SortedMap<String, String> entries = new TreeMap<>(old);
+        // subdirectory name + "/" -> changes relative to it
+        Map<String, Map<String, String>> below = new TreeMap<>();
+        for (Map.Entry<String, String> c : changes.entrySet()) {
+            String path = c.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (c.getValue() == null) {
+                    entries.remove(path);
+                } else {
+                    entries.put(path, c.getValue());
+                }
+            } else {
+                below.computeIfAbsent(path.substring(0, slash + 1), k -> new HashMap<>())
+                     .put(path.substring(slash + 1), c.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> sub : below.entrySet()) {
+            String subId = updateDir(entries.get(sub.getKey()), sub.getValue());
+            if (subId == null) {
+                entries.remove(sub.getKey());
+            } else {
+                entries.put(sub.getKey(), subId);
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        if (id != null && entries.equals(old)) {
+            return id;
+        }
+        return write(entries);
+    }
+
+    private static void addFiles(String id, String prefix, Map<String, String> files) {
+        for (Map.Entry<String, String> e : read(id).entrySet()) {
+            if (e.getKey().endsWith("/")) {
+                addFiles(e.getValue(), prefix + e.getKey(), files);
+            } else {
+                files.put(prefix + e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private static void diff(String a, String b, String prefix,
+                             SortedMap<String, String[]> changes) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        SortedMap<String, String> left = a == null ? new TreeMap<>() : read(a);
+        SortedMap<String, String> right = b == null ? new TreeMap<>() : read(b);
+        TreeSet<String> names = new TreeSet<>(left.keySet());
+        names.addAll(right.keySet());
+        for (String name : names) {
+            String l = left.get(name);
+            String r = right.get(name);
+            if (name.endsWith("/")) {
+                diff(l, r, prefix + name, changes);
+            } else if (!Objects.equals(l, r)) {
+                changes.put(prefix + name, new String[] {l, r});
+            }
+        }
+    }
+
+    private static int indexOf(byte[] content, byte b, int from) {
+        for (int i = from; i < content.length; i += 1) {
+            if (content[i] == b) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("corrupt tree");
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,13 +10,14 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -28,41 +30,158 @@ import java.util.List;
  */
 class Utils {
 
-    /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
-    static final int UID_LENGTH = 40;
+    /** Returns the length of a complete UID as a hexadecimal numeral,
+     *  which depends on the object format of the repository. */
+    static int uidLength() {
+        return ObjectFormat.current().hexLength();
+    }
 
-    /* SHA-1 HASH VALUES. */
+    /** Returns the length of a complete UID in bytes. */
+    static int rawUidLength() {
+        return ObjectFormat.current().rawLength();
+    }
 
-    /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
-    static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+    /* HASH VALUES. */
+
+    /** Files at least this long are hashed through memory mappings. */
+    private static final long MAP_THRESHOLD = 1 << 20;
+    /** Most bytes of a file mapped at once. */
+    private static final long MAP_WINDOW = 64 << 20;
+    /** Size of the direct buffer shorter files are read through. */
+    private static final int READ_BUFFER = 64 * 1024;
+
+    /** Per-thread hashing state for one object format, so hashing
+     *  allocates no digest, buffer or hex scratch space per call. */
+    private static final class Hasher {
+        final ObjectFormat format;
+        final MessageDigest md;
+        final byte[] raw;
+        final char[] hex;
+        final ByteBuffer buf = ByteBuffer.allocateDirect(READ_BUFFER);
+
+        Hasher(ObjectFormat format) {
+            this.format = format;
+            md = format.newDigest();
+            raw = new byte[format.rawLength()];
+            hex = new char[format.hexLength()];
+        }
+
+        /** Returns the hash of what was fed to MD as hex, and resets MD. */
+        String finish() {
+            try {
+                md.digest(raw, 0, raw.length);
+            } catch (DigestException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            for (int i = 0; i < raw.length; i += 1) {
+                hex[2 * i] = HEX_DIGITS[(raw[i] >> 4) & 0xf];
+                hex[2 * i + 1] = HEX_DIGITS[raw[i] & 0xf];
+            }
+            return new String(hex);
+        }
+    }
+
+    private static final ThreadLocal<Hasher> HASHER = new ThreadLocal<>();
+
+    /** Returns this thread's hasher for the current object format. */
+    private static Hasher hasher() {
+        ObjectFormat format = ObjectFormat.current();
+        Hasher h = HASHER.get();
+        if (h == null || h.format != format) {
+            h = new Hasher(format);
+            HASHER.set(h);
+        }
+        return h;
+    }
+
+    /** Returns this thread's digest for the object format, reset.
+     *  Callers finish it with hashHex before the thread hashes anything
+     *  else. */
+    static MessageDigest hashDigest() {
+        MessageDigest md = hasher().md;
+        md.reset();
+        return md;
+    }
+
+    /** Returns, as a hexadecimal numeral, the hash of what was fed to the
+     *  digest returned by hashDigest, which is reset. */
+    static String hashHex() {
+        return hasher().finish();
+    }
+
+    /** Returns the hash of the concatenation of VALS, which may be any
+     *  mixture of byte arrays and Strings, in the object format. */
+    static String hash(Object... vals) {
+        MessageDigest md = hashDigest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to hash");
+            }
+        }
+        return hashHex();
+    }
+
+    /** Returns the hash of HEADER followed by the first SIZE bytes of
+     *  CH. Files of MAP_THRESHOLD bytes or more are read through memory
+     *  mappings of at most MAP_WINDOW bytes, and shorter ones through a
+     *  direct buffer kept per thread, so the content never passes
+     *  through the Java heap. */
+    static String hash(byte[] header, FileChannel ch, long size) throws IOException {
+        Hasher h = hasher();
+        MessageDigest md = hashDigest();
+        md.update(header);
+        if (size >= MAP_THRESHOLD) {
+            for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+                md.update(ch.map(FileChannel.MapMode.READ_ONLY, pos,
+                                 Math.min(MAP_WINDOW, size - pos)));
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        } else {
+            long pos = 0;
+            while (pos < size) {
+                h.buf.clear().limit((int) Math.min(h.buf.capacity(), size - pos));
+                int n = ch.read(h.buf, pos);
+                if (n < 0) {
+                    throw new IOException("file changed while being read");
+                }
+                md.update(h.buf.flip());
+                pos += n;
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        return h.finish();
     }
 
-    /** Returns the SHA-1 hash of the concatenation of the strings in
-     *  VALS. */
-    static String sha1(List<Object> vals) {
-        return sha1(vals.toArray(new Object[vals.size()]));
+    /** Returns the hash of the concatenation of the strings in VALS. */
+    static String hash(List<Object> vals) {
+        return hash(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the lower-case hexadecimal numeral for the bytes in RAW. */
+    static String toHex(byte[] raw) {
+        char[] hex = new char[raw.length * 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            hex[2 * i] = HEX_DIGITS[(raw[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[raw[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX, which
+     *  must have an even number of digits. */
+    static byte[] fromHex(String hex) {
+        byte[] raw = new byte[hex.length() / 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            raw[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return raw;
+    }
+
+    /** Digits used by toHex. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -152,6 +271,22 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -237,8 +372,9 @@ class Utils {
         System.out.println();
     }
 
+    /** Ends the current command with the error message S, which Main
+     *  prints. */
     public static void errorPrint(String s) {
-        message(s);
-        System.exit(0);
+        throw new GitletException(s);
     }
 }